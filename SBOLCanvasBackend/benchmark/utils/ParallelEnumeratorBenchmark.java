@@ -0,0 +1,85 @@
+package utils;
+
+import java.util.List;
+
+/**
+ * Times ParallelEnumerator.build over the same range at 1 to 8 threads with a
+ * CPU-bound builder, and checks every thread count gives the same windows in
+ * the same order. Not part of the webapp. Compile it with src against the
+ * webapp's libraries and run it with -Dsbolcanvas.enumerationThreads=8, since
+ * the shared pool defaults to the number of cores:
+ *
+ * java -Dsbolcanvas.enumerationThreads=8 -cp classes:WebContent/WEB-INF/lib/*
+ * utils.ParallelEnumeratorBenchmark [variants] [work per variant]
+ */
+public class ParallelEnumeratorBenchmark {
+
+	private static final int WINDOW = 100;
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		long variants = args.length > 0 ? Long.parseLong(args[0]) : 200000;
+		final int work = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		ParallelEnumerator.WindowBuilder<Long> builder = new ParallelEnumerator.WindowBuilder<Long>() {
+			@Override
+			public Long build(long start, long end) {
+				// stands in for building a window of variants
+				long sum = 0;
+				for (long index = start; index < end; index++) {
+					long x = index;
+					for (int i = 0; i < work; i++) {
+						x ^= x << 13;
+						x ^= x >>> 7;
+						x ^= x << 17;
+					}
+					sum += x;
+				}
+				return sum;
+			}
+		};
+
+		System.out.println("cores=" + Runtime.getRuntime().availableProcessors() + " pool="
+				+ Constants.ENUMERATION_MAX_THREADS + " variants=" + variants + " work=" + work);
+		long baseline = 0;
+		long expected = 0;
+		for (int threads = 1; threads <= 8; threads++) {
+			ParallelEnumerator enumerator = new ParallelEnumerator(threads);
+			// warm up, then keep the best run
+			long checksum = run(enumerator, variants, builder);
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < RUNS; run++) {
+				long begin = System.nanoTime();
+				if (run(enumerator, variants, builder) != checksum)
+					throw new IllegalStateException("Runs at " + threads + " threads differ.");
+				best = Math.min(best, System.nanoTime() - begin);
+			}
+			if (threads == 1) {
+				baseline = best;
+				expected = checksum;
+			} else if (checksum != expected) {
+				throw new IllegalStateException(threads + " threads built different windows than 1 thread.");
+			}
+			System.out.printf("threads=%d time=%dms speedup=%.2f%n", threads, best / 1000000,
+					(double) baseline / best);
+		}
+		ParallelEnumerator.shutdown();
+	}
+
+	/**
+	 * Builds [0, variants) a batch at a time like Enumerate does, and returns a
+	 * checksum that depends on the order of the windows.
+	 */
+	private static long run(ParallelEnumerator enumerator, long variants,
+			ParallelEnumerator.WindowBuilder<Long> builder) throws Exception {
+		long checksum = 0;
+		long batch = enumerator.getBatchSize(WINDOW);
+		for (long start = 0; start < variants; start += batch) {
+			List<Long> windows = enumerator.build(start, Math.min(variants, start + batch), WINDOW, builder);
+			for (Long window : windows) {
+				checksum = checksum * 31 + window;
+			}
+		}
+		return checksum;
+	}
+
+}
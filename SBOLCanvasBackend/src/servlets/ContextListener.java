@@ -0,0 +1,40 @@
+package servlets;
+
+import java.io.File;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+import utils.Constants;
+import utils.ParallelEnumerator;
+import utils.PartPrefetcher;
+import utils.RegistryList;
+import utils.RenderPool;
+
+/**
+ * Hands the webapp's private temporary directory to the classes that keep files
+ * between starts. Runs before any servlet is loaded. When the webapp stops it
+ * shuts down the shared thread pools, so a redeploy doesn't leave their threads
+ * holding on to the old classes.
+ */
+@WebListener
+public class ContextListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		Object tempDir = event.getServletContext().getAttribute(ServletContext.TEMPDIR);
+		if (tempDir instanceof File)
+			Constants.CONTEXT_TEMP_DIR = (File) tempDir;
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		RenderPool.getInstance().shutdown();
+		PartPrefetcher.shutdown();
+		RegistryList.getInstance().shutdown();
+		ParallelEnumerator.shutdown();
+	}
+
+}
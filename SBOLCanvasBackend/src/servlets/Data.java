@@ -3,6 +3,7 @@ package servlets;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.annotation.WebServlet;
@@ -15,49 +16,70 @@ import org.apache.http.HttpStatus;
 
 import com.google.gson.Gson;
 
+import utils.CachedResponse;
 import utils.SBOLData;
 
 @SuppressWarnings("serial")
 @WebServlet(urlPatterns = { "/data/*" })
 public class Data extends HttpServlet {
 
+	private static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+	// the vocabulary is fixed while the server runs, so it's only serialized once
+	private CachedResponse types;
+	private CachedResponse roles;
+	private CachedResponse interactions;
+	private CachedResponse interactionRoles;
+	private CachedResponse noRefinements;
+	private ConcurrentHashMap<String, CachedResponse> refinements;
+	private ConcurrentHashMap<String, CachedResponse> interactionRoleRefinements;
+
+	@Override
+	public void init() {
+		Gson gson = new Gson();
+		types = new CachedResponse(gson.toJson(SBOLData.getTypes()), CONTENT_TYPE);
+		roles = new CachedResponse(gson.toJson(SBOLData.getRoles()), CONTENT_TYPE);
+		interactions = new CachedResponse(gson.toJson(SBOLData.getInteractions()), CONTENT_TYPE);
+		interactionRoles = new CachedResponse(gson.toJson(SBOLData.getInteractionRoles()), CONTENT_TYPE);
+		noRefinements = new CachedResponse(gson.toJson(new String[0]), CONTENT_TYPE);
+		refinements = new ConcurrentHashMap<String, CachedResponse>();
+		interactionRoleRefinements = new ConcurrentHashMap<String, CachedResponse>();
+	}
+
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		try {
-			// setup the json
-			Gson gson = new Gson();
-			String body = null;
+			CachedResponse body = null;
 			if (request.getPathInfo().equals("/types")) {
-				body = gson.toJson(SBOLData.getTypes());
+				body = types;
 			} else if (request.getPathInfo().equals("/roles")) {
-				body = gson.toJson(SBOLData.getRoles());
+				body = roles;
 			} else if (request.getPathInfo().equals("/refine")) {
 				String parent = request.getParameter("parent");
 				if (parent == null) {
 					response.setStatus(HttpStatus.SC_BAD_REQUEST);
 					return;
 				}
-				body = gson.toJson(SBOLData.getRefinement(parent));
+				body = getRefinement(parent);
 			} else if (request.getPathInfo().equals("/interactions")) {
-				body = gson.toJson(SBOLData.getInteractions());
+				body = interactions;
 			}else if (request.getPathInfo().equals("/interactionRoles")) {
-				body = gson.toJson(SBOLData.getInteractionRoles());
+				body = interactionRoles;
 			}else if (request.getPathInfo().equals("/interactionRoleRefine")) {
 				String parent = request.getParameter("parent");
 				if(parent == null) {
 					response.setStatus(HttpStatus.SC_BAD_REQUEST);
 					return;
 				}
-				body = gson.toJson(SBOLData.getInteractionRoleRefinement(parent));
+				body = getInteractionRoleRefinement(parent);
 			}
 
-			// write it to the response body
-			ServletOutputStream outputStream = response.getOutputStream();
-			InputStream inputStream = new ByteArrayInputStream(body.getBytes());
-			IOUtils.copy(inputStream, outputStream);
+			if (body == null) {
+				response.setStatus(HttpStatus.SC_NOT_FOUND);
+				return;
+			}
 
-			// the request was good
-			response.setStatus(HttpStatus.SC_OK);
-			response.setContentType("application/json");
+			// write it to the response body
+			body.write(request, response);
 			return;
 		} catch (IOException e) {
 			ServletOutputStream outputStream = response.getOutputStream();
@@ -68,4 +90,31 @@ public class Data extends HttpServlet {
 		}
 	}
 
+	/**
+	 * Refinements are cached per parent role. Unknown parents all share the empty
+	 * response so they can't grow the cache.
+	 */
+	private CachedResponse getRefinement(String parent) {
+		if (!parent.equals("") && SBOLData.roles.getValue(parent) == null)
+			return noRefinements;
+		CachedResponse body = refinements.get(parent);
+		if (body == null) {
+			body = new CachedResponse(new Gson().toJson(SBOLData.getRefinement(parent)), CONTENT_TYPE);
+			refinements.putIfAbsent(parent, body);
+		}
+		return body;
+	}
+
+	private CachedResponse getInteractionRoleRefinement(String parent) {
+		if (SBOLData.interactionRoles.getValue(parent) == null)
+			return noRefinements;
+		CachedResponse body = interactionRoleRefinements.get(parent);
+		if (body == null) {
+			body = new CachedResponse(new Gson().toJson(SBOLData.getInteractionRoleRefinement(parent)),
+					CONTENT_TYPE);
+			interactionRoleRefinements.putIfAbsent(parent, body);
+		}
+		return body;
+	}
+
 }
@@ -1,12 +1,25 @@
 package servlets;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.annotation.WebServlet;
@@ -19,18 +32,36 @@ import javax.xml.transform.TransformerFactoryConfigurationError;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpStatus;
 import org.sbolstandard.core2.CombinatorialDerivation;
+import org.sbolstandard.core2.Component;
 import org.sbolstandard.core2.ComponentDefinition;
 import org.sbolstandard.core2.SBOLConversionException;
 import org.sbolstandard.core2.SBOLDocument;
 import org.sbolstandard.core2.SBOLReader;
 import org.sbolstandard.core2.SBOLValidationException;
 import org.sbolstandard.core2.SBOLWriter;
+import org.sbolstandard.core2.StrategyType;
 import org.synbiohub.frontend.SynBioHubException;
 
+import com.google.gson.Gson;
+
+import utils.Constants;
 import utils.MxToSBOL;
+import utils.ParallelEnumerator;
+import utils.VariantFingerprint;
+import utils.VariantSampler;
+import utils.VariantSpace;
 
+/**
+ * Enumerates the variants of the root combinatorial derivations. A plain request
+ * returns CombinatorialDerivation.enumerate's variants with duplicates removed.
+ * Requests with offset, limit, sample or stream=true, and documents with a
+ * sample strategy, number the variants with VariantSpace instead. Those variants
+ * are named after the template and their index, have no sequence annotations
+ * and aren't deduplicated, so pages don't line up with a plain request's output.
+ * POST /enumerate/count only counts them.
+ */
 @SuppressWarnings("serial")
-@WebServlet(urlPatterns = { "/enumerate" })
+@WebServlet(urlPatterns = { "/enumerate", "/enumerate/*" })
 public class Enumerate extends HttpServlet {
 
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -53,20 +84,95 @@ public class Enumerate extends HttpServlet {
 			if (sbolSourceString != null) {
 				sbolSource = sbolSourceString.equals("false");
 			}
+			if ("/count".equals(request.getPathInfo())) {
+				writeCount(readDocument(request, userTokens, sbolSource), response);
+				return;
+			}
 			if (format == null) {
 				format = "SBOL2";
 			} else if (!format.equals("SBOL2") && !format.equals("CSV")) {
 				response.setStatus(HttpStatus.SC_BAD_REQUEST);
 				return;
 			}
+			boolean stream = "true".equals(request.getParameter("stream"));
+			int threads = 1;
+			if (request.getParameter("threads") != null) {
+				try {
+					threads = Integer.parseInt(request.getParameter("threads"));
+				} catch (NumberFormatException e) {
+					response.setStatus(HttpStatus.SC_BAD_REQUEST);
+					return;
+				}
+				threads = Math.max(1, Math.min(threads, Constants.ENUMERATION_MAX_THREADS));
+			}
+			boolean paged = request.getParameter("offset") != null || request.getParameter("limit") != null;
+			long offset = 0;
+			// a single document has to fit in memory, streams don't
+			long limit = paged && !stream ? Constants.ENUMERATION_PAGE_LIMIT : Long.MAX_VALUE;
+			Integer sample = null;
+			VariantSampler.Method sampling = VariantSampler.Method.UNIFORM;
+			long seed = new SplittableRandom().nextLong();
+			try {
+				if (request.getParameter("offset") != null)
+					offset = Long.parseLong(request.getParameter("offset"));
+				if (request.getParameter("limit") != null)
+					limit = Long.parseLong(request.getParameter("limit"));
+				if (request.getParameter("sample") != null)
+					sample = Integer.parseInt(request.getParameter("sample"));
+				if (request.getParameter("seed") != null)
+					seed = Long.parseLong(request.getParameter("seed"));
+				if (request.getParameter("sampling") != null)
+					sampling = VariantSampler.Method.valueOf(request.getParameter("sampling").toUpperCase());
+			} catch (IllegalArgumentException e) {
+				response.setStatus(HttpStatus.SC_BAD_REQUEST);
+				return;
+			}
+			if (offset < 0 || limit < 0 || (sample != null && sample < 0)) {
+				response.setStatus(HttpStatus.SC_BAD_REQUEST);
+				return;
+			}
 
 			// create the document
-			SBOLDocument doc = null;
-			if (!sbolSource) {
-				MxToSBOL converter = new MxToSBOL(userTokens);
-				doc = converter.setupDocument(request.getInputStream());
-			} else {
-				doc = SBOLReader.read(request.getInputStream());
+			SBOLDocument doc = readDocument(request, userTokens, sbolSource);
+
+			// large libraries don't fit in memory, write the variants as they're made
+			if (stream || paged || sample != null || hasSampleStrategy(doc)) {
+				List<VariantSpace> spaces;
+				List<Range> ranges;
+				try {
+					spaces = getVariantSpaces(doc);
+					ranges = getRanges(getSelections(spaces, sample, seed, sampling), offset, limit);
+				} catch (IllegalArgumentException e) {
+					response.setStatus(HttpStatus.SC_BAD_REQUEST);
+					response.getOutputStream().write(e.getMessage().getBytes());
+					return;
+				}
+				// samples aren't cut short, too many is an error like an oversized page
+				if (!stream && getLength(ranges) > Constants.ENUMERATION_PAGE_LIMIT) {
+					response.setStatus(HttpStatus.SC_BAD_REQUEST);
+					response.getOutputStream().write(("Documents are limited to " + Constants.ENUMERATION_PAGE_LIMIT
+							+ " variants, use a limit or stream=true for more.").getBytes());
+					return;
+				}
+				response.setHeader("X-Variant-Count", getTotal(spaces).toString());
+				response.setHeader("X-Sample-Seed", Long.toString(seed));
+				response.setStatus(HttpStatus.SC_OK);
+				if (!stream) {
+					// built by VariantSpace like streams, not CombinatorialDerivation.enumerate
+					if (format.equals("SBOL2")) {
+						SBOLWriter.write(createPage(doc, ranges), response.getOutputStream());
+					} else {
+						SBOLWriter.write(createPage(doc, ranges), response.getOutputStream(), SBOLDocument.CSV);
+					}
+					return;
+				}
+				ParallelEnumerator enumerator = new ParallelEnumerator(threads);
+				if (format.equals("SBOL2")) {
+					writeSBOLParts(doc, ranges, enumerator, response);
+				} else {
+					writeCSV(ranges, enumerator, response);
+				}
+				return;
 			}
 
 			// find the top combinatorial and enumerate
@@ -92,16 +198,299 @@ public class Enumerate extends HttpServlet {
 		}
 	}
 
+	private static SBOLDocument readDocument(HttpServletRequest request, HashMap<String, String> userTokens,
+			boolean sbolSource) throws IOException, SBOLValidationException, SBOLConversionException,
+			SynBioHubException, URISyntaxException {
+		if (!sbolSource) {
+			MxToSBOL converter = new MxToSBOL(userTokens);
+			return converter.setupDocument(request.getInputStream());
+		}
+		return SBOLReader.read(request.getInputStream());
+	}
+
+	/**
+	 * Writes the number of variants of each root derivation and their total as
+	 * JSON. Only the operators and the sizes of the variant sets are looked at, no
+	 * variant is built.
+	 */
+	private static void writeCount(SBOLDocument doc, HttpServletResponse response) throws IOException {
+		Count count = new Count();
+		try {
+			for (CombinatorialDerivation derivation : doc.getRootCombinatorialDerivations()) {
+				BigInteger variants = VariantSpace.count(derivation);
+				count.derivations.put(derivation.getIdentity().toString(), variants);
+				count.total = count.total.add(variants);
+			}
+		} catch (IllegalArgumentException e) {
+			response.setStatus(HttpStatus.SC_BAD_REQUEST);
+			response.getOutputStream().write(e.getMessage().getBytes());
+			return;
+		}
+		response.setStatus(HttpStatus.SC_OK);
+		response.setContentType("application/json; charset=UTF-8");
+		response.getOutputStream().write(new Gson().toJson(count).getBytes(StandardCharsets.UTF_8));
+	}
+
 	private static SBOLDocument enumerateDocument(SBOLDocument doc) throws SBOLValidationException {
 		SBOLDocument newDoc = new SBOLDocument();
-		Set<ComponentDefinition> enumerations = new HashSet<ComponentDefinition>();
+		// fingerprints are much cheaper to hash and compare than whole definitions
+		Set<VariantFingerprint> enumerated = new HashSet<VariantFingerprint>();
 		for (CombinatorialDerivation derivation : doc.getRootCombinatorialDerivations()) {
-			enumerations.addAll(derivation.enumerate());
-		}
-		for (ComponentDefinition compDef : enumerations) {
-			doc.createRecursiveCopy(newDoc, compDef);
+			for (ComponentDefinition compDef : derivation.enumerate()) {
+				if (enumerated.add(VariantFingerprint.of(compDef)))
+					doc.createRecursiveCopy(newDoc, compDef);
+			}
 		}
 		return newDoc;
 	}
 
+	private static List<VariantSpace> getVariantSpaces(SBOLDocument doc) {
+		List<VariantSpace> spaces = new ArrayList<VariantSpace>();
+		for (CombinatorialDerivation derivation : doc.getRootCombinatorialDerivations()) {
+			spaces.add(new VariantSpace(derivation));
+		}
+		return spaces;
+	}
+
+	private static BigInteger getTotal(List<VariantSpace> spaces) {
+		BigInteger total = BigInteger.ZERO;
+		for (VariantSpace space : spaces) {
+			total = total.add(BigInteger.valueOf(space.size()));
+		}
+		return total;
+	}
+
+	private static boolean hasSampleStrategy(SBOLDocument doc) {
+		for (CombinatorialDerivation derivation : doc.getRootCombinatorialDerivations()) {
+			if (StrategyType.SAMPLE.equals(derivation.getStrategy()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The variants to return from each space before paging. With a sample size
+	 * they're drawn from all the spaces together, otherwise derivations with the
+	 * sample strategy get Constants.ENUMERATION_SAMPLE_SIZE variants each and the
+	 * rest are enumerated in full.
+	 */
+	private static List<Range> getSelections(List<VariantSpace> spaces, Integer sample, long seed,
+			VariantSampler.Method sampling) {
+		List<Range> selections = new ArrayList<Range>();
+		if (sample != null) {
+			List<long[]> indices = VariantSampler.sample(spaces, sample, seed, sampling);
+			for (int i = 0; i < spaces.size(); i++) {
+				selections.add(new Range(spaces.get(i), indices.get(i)));
+			}
+			return selections;
+		}
+		for (VariantSpace space : spaces) {
+			if (StrategyType.SAMPLE.equals(space.getDerivation().getStrategy())) {
+				selections.add(new Range(space, VariantSampler
+						.sample(Arrays.asList(space), Constants.ENUMERATION_SAMPLE_SIZE, seed, sampling).get(0)));
+			} else {
+				selections.add(new Range(space, null));
+			}
+		}
+		return selections;
+	}
+
+	/**
+	 * Maps limit variants starting at offset onto the selections, numbered one
+	 * after another in document order.
+	 */
+	private static List<Range> getRanges(List<Range> selections, long offset, long limit) {
+		List<Range> ranges = new ArrayList<Range>();
+		for (Range selection : selections) {
+			if (limit == 0)
+				break;
+			long length = selection.end - selection.start;
+			if (offset >= length) {
+				offset -= length;
+				continue;
+			}
+			long end = offset + Math.min(limit, length - offset);
+			ranges.add(new Range(selection.space, selection.indices, offset, end));
+			limit -= end - offset;
+			offset = 0;
+		}
+		return ranges;
+	}
+
+	private static long getLength(List<Range> ranges) {
+		long length = 0;
+		for (Range range : ranges) {
+			length += range.end - range.start;
+		}
+		return length;
+	}
+
+	private static SBOLDocument createPage(SBOLDocument doc, List<Range> ranges) throws SBOLValidationException {
+		SBOLDocument page = new SBOLDocument();
+		for (Range range : ranges) {
+			for (long position = range.start; position < range.end; position++) {
+				range.space.create(doc, page, range.index(position));
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Writes the variants as a multipart/mixed response, each part an SBOL
+	 * document holding up to Constants.ENUMERATION_WINDOW variants and what they
+	 * refer to. Parts are built in parallel and written in order.
+	 */
+	private static void writeSBOLParts(final SBOLDocument doc, List<Range> ranges,
+			ParallelEnumerator enumerator, HttpServletResponse response)
+			throws IOException, SBOLValidationException, SBOLConversionException {
+		String boundary = "variants-" + UUID.randomUUID();
+		response.setContentType("multipart/mixed; boundary=" + boundary);
+		OutputStream outputStream = response.getOutputStream();
+		// SBOLWriter closes the stream it's given
+		OutputStream partStream = new FilterOutputStream(outputStream) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+
+		for (final Range range : ranges) {
+			long batch = enumerator.getBatchSize(Constants.ENUMERATION_WINDOW);
+			for (long start = range.start; start < range.end; start += batch) {
+				List<SBOLDocument> parts = enumerator.build(start, Math.min(range.end, start + batch),
+						Constants.ENUMERATION_WINDOW, new ParallelEnumerator.WindowBuilder<SBOLDocument>() {
+							@Override
+							public SBOLDocument build(long start, long end) throws SBOLValidationException {
+								SBOLDocument part = new SBOLDocument();
+								for (long position = start; position < end; position++) {
+									range.space.create(doc, part, range.index(position));
+								}
+								return part;
+							}
+						});
+				for (SBOLDocument part : parts) {
+					outputStream.write(("--" + boundary + "\r\nContent-Type: application/rdf+xml\r\n\r\n")
+							.getBytes(StandardCharsets.UTF_8));
+					SBOLWriter.write(part, partStream);
+					outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
+					outputStream.flush();
+				}
+			}
+		}
+		outputStream.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+		outputStream.flush();
+	}
+
+	/**
+	 * Writes one row per variant with the parts chosen for each variable
+	 * component. Each derivation starts with its own header row. Only streams use
+	 * these rows, SBOLWriter's CSV needs the whole document.
+	 */
+	private static void writeCSV(List<Range> ranges, ParallelEnumerator enumerator, HttpServletResponse response)
+			throws IOException, SBOLValidationException {
+		response.setContentType("text/csv; charset=UTF-8");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+		for (int s = 0; s < ranges.size(); s++) {
+			final Range range = ranges.get(s);
+			VariantSpace space = range.space;
+			if (s > 0)
+				writer.write("\r\n");
+			List<String> header = new ArrayList<String>();
+			header.add("Derivation");
+			header.add("Variant");
+			for (Component variable : space.getVariables()) {
+				header.add(variable.getDisplayId());
+			}
+			StringBuilder headerRow = new StringBuilder();
+			appendCSVRow(headerRow, header);
+			writer.write(headerRow.toString());
+
+			long batch = enumerator.getBatchSize(Constants.ENUMERATION_WINDOW);
+			for (long start = range.start; start < range.end; start += batch) {
+				List<String> rows = enumerator.build(start, Math.min(range.end, start + batch),
+						Constants.ENUMERATION_WINDOW, new ParallelEnumerator.WindowBuilder<String>() {
+							@Override
+							public String build(long start, long end) {
+								StringBuilder csv = new StringBuilder();
+								for (long position = start; position < end; position++) {
+									appendCSVRow(csv, getCSVRow(range.space, range.index(position)));
+								}
+								return csv.toString();
+							}
+						});
+				for (String window : rows) {
+					writer.write(window);
+				}
+				writer.flush();
+			}
+		}
+		writer.flush();
+	}
+
+	private static List<String> getCSVRow(VariantSpace space, long index) {
+		List<String> row = new ArrayList<String>();
+		row.add(space.getDerivation().getIdentity().toString());
+		row.add(space.getIdentity(index).toString());
+		for (List<VariantSpace.Part> parts : space.decode(index)) {
+			StringBuilder cell = new StringBuilder();
+			for (VariantSpace.Part part : parts) {
+				if (cell.length() > 0)
+					cell.append(';');
+				cell.append(part.getDisplayId());
+			}
+			row.add(cell.toString());
+		}
+		return row;
+	}
+
+	private static void appendCSVRow(StringBuilder csv, List<String> cells) {
+		for (int i = 0; i < cells.size(); i++) {
+			if (i > 0)
+				csv.append(',');
+			String cell = cells.get(i) != null ? cells.get(i) : "";
+			if (cell.indexOf(',') >= 0 || cell.indexOf('"') >= 0 || cell.indexOf('\n') >= 0
+					|| cell.indexOf('\r') >= 0) {
+				cell = "\"" + cell.replace("\"", "\"\"") + "\"";
+			}
+			csv.append(cell);
+		}
+		csv.append("\r\n");
+	}
+
+	/**
+	 * Positions [start, end) of a selection of a space's variants, either all of
+	 * them in order or the listed indices.
+	 */
+	private static class Range {
+		final VariantSpace space;
+		final long[] indices;
+		final long start;
+		final long end;
+
+		Range(VariantSpace space, long[] indices) {
+			this(space, indices, 0, indices != null ? indices.length : space.size());
+		}
+
+		Range(VariantSpace space, long[] indices, long start, long end) {
+			this.space = space;
+			this.indices = indices;
+			this.start = start;
+			this.end = end;
+		}
+
+		long index(long position) {
+			return indices != null ? indices[(int) position] : position;
+		}
+	}
+
+	private static class Count {
+		BigInteger total = BigInteger.ZERO;
+		LinkedHashMap<String, BigInteger> derivations = new LinkedHashMap<String, BigInteger>();
+	}
+
 }
@@ -1,21 +1,34 @@
 package servlets;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
 
@@ -28,6 +41,13 @@ import com.mxpdf.text.DocumentException;
 import com.mxpdf.text.pdf.PdfWriter;
 
 import utils.Constants;
+import utils.ExportCache;
+import utils.ImageCache;
+import utils.RenderPool;
+import utils.StripPngWriter;
+import utils.SvgCanvas2D;
+
+import com.google.gson.Gson;
 
 import com.mxgraph.canvas.mxGraphicsCanvas2D;
 import com.mxgraph.canvas.mxICanvas2D;
@@ -54,9 +74,15 @@ public class Export extends HttpServlet
 	private transient SAXParserFactory parserFactory = SAXParserFactory.newInstance();
 
 	/**
-	 * Cache for all images.
+	 * Cache for images served from this domain, bounded by their pixel bytes.
+	 */
+	protected transient ImageCache imageCache = new ImageCache(Constants.IMAGE_CACHE_BYTES);
+
+	/**
+	 * Cache for finished exports, so repeating an export doesn't render it again.
 	 */
-	protected transient Hashtable<String, Image> imageCache = new Hashtable<String, Image>();
+	protected transient ExportCache exportCache = new ExportCache(Constants.EXPORT_CACHE_BYTES,
+			Constants.EXPORT_CACHE_DIR != null ? new File(Constants.EXPORT_CACHE_DIR) : null, Constants.EXPORT_CACHE_DISK_BYTES);
 
 	/**
 	 * @see HttpServlet#HttpServlet()
@@ -66,24 +92,97 @@ public class Export extends HttpServlet
 		super();
 	}
 
+	/**
+	 * Returns the cache and render pool metrics as JSON for /export/stats.
+	 */
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		if (!"/stats".equals(request.getPathInfo()))
+		{
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		Map<String, Number> stats = new LinkedHashMap<String, Number>();
+		stats.put("hits", imageCache.getHits());
+		stats.put("misses", imageCache.getMisses());
+		stats.put("evictions", imageCache.getEvictions());
+		stats.put("entries", (long) imageCache.size());
+		stats.put("residentBytes", imageCache.getResidentBytes());
+		stats.put("maxBytes", imageCache.getMaxBytes());
+		RenderPool renderPool = RenderPool.getInstance();
+		stats.put("renderReservedBytes", renderPool.getReservedBytes());
+		stats.put("renderBudget", renderPool.getBudget());
+		stats.put("renderWaiting", (long) renderPool.getWaiting());
+		stats.put("rendered", renderPool.getRendered());
+		stats.put("renderRejected", renderPool.getRejected());
+		stats.put("resultHits", exportCache.getHits());
+		stats.put("resultDiskHits", exportCache.getDiskHits());
+		stats.put("resultMisses", exportCache.getMisses());
+		stats.put("resultHitRatio", exportCache.getHitRatio());
+		stats.put("resultBytes", exportCache.getBytes());
+		stats.put("resultDiskBytes", exportCache.getDiskBytes());
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("application/json; charset=UTF-8");
+		response.getOutputStream().write(new Gson().toJson(stats).getBytes(StandardCharsets.UTF_8));
+	}
+
 	/**
 	 * Handles exceptions and the output stream buffer.
 	 */
-	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException
 	{
 		try
 		{
 			if (request.getContentLength() < Constants.MAX_REQUEST_SIZE)
 			{
 				long t0 = System.currentTimeMillis();
+				String key = getCacheKey(request);
+				byte[] cached = (key != null) ? exportCache.get(key) : null;
 
-				handleRequest(request, response);
+				if (cached != null)
+				{
+					writeCached(request, cached, response);
+				}
+				else
+				{
+					// Keeps a copy of what's sent for the next identical export
+					final CapturingResponse capture = new CapturingResponse(response, exportCache.getMaxEntryBytes());
+
+					// Renders on the export pool once the canvas fits in its memory budget
+					try
+					{
+						RenderPool.getInstance().render(getRenderCost(request), new Callable<Void>()
+						{
+							public Void call() throws Exception
+							{
+								handleRequest(request, capture);
+								return null;
+							}
+						});
+					}
+					catch (RenderPool.BusyException e)
+					{
+						System.out.println("export: ip=" + request.getRemoteAddr() + " rejected: " + e.getMessage());
+						response.setHeader("Retry-After", Integer.toString(Constants.EXPORT_RETRY_AFTER));
+						response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+						return;
+					}
+
+					byte[] body = capture.getCaptured();
+
+					if (key != null && body != null && body.length > 0)
+					{
+						exportCache.put(key, body);
+					}
+				}
 
 				long mem = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
 				long dt = System.currentTimeMillis() - t0;
 
 				System.out.println("export: ip=" + request.getRemoteAddr() + " ref=\"" + request.getHeader("Referer") + "\" length="
-						+ request.getContentLength() + " mem=" + mem + " dt=" + dt);
+						+ request.getContentLength() + " mem=" + mem + " dt=" + dt + " cached=" + (cached != null) + " images=" + imageCache);
 			}
 			else
 			{
@@ -111,6 +210,104 @@ public class Export extends HttpServlet
 		}
 	}
 
+	/**
+	 * Hash of the parameters that decide what an export looks like, null if they
+	 * aren't valid. The filename only changes the headers so it isn't included.
+	 */
+	protected String getCacheKey(HttpServletRequest request) throws IOException
+	{
+		try
+		{
+			String format = request.getParameter("format");
+			int w = Integer.parseInt(request.getParameter("w"));
+			int h = Integer.parseInt(request.getParameter("h"));
+			String xml = getRequestXml(request);
+
+			if (isValidSize(w, h) && format != null && xml != null && xml.length() > 0)
+			{
+				return ExportCache.getKey(format, w, h, request.getParameter("bg"), xml);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			// handled in handleRequest
+		}
+
+		return null;
+	}
+
+	/**
+	 * Sends a cached export with the headers it was first sent with.
+	 */
+	protected void writeCached(HttpServletRequest request, byte[] body, HttpServletResponse response) throws IOException
+	{
+		String format = request.getParameter("format");
+		String fname = request.getParameter("filename");
+
+		if (fname != null && fname.toLowerCase().endsWith(".xml"))
+		{
+			fname = fname.substring(0, fname.length() - 4) + format;
+		}
+
+		if (format.equals("pdf"))
+		{
+			setPdfHeaders(fname, response);
+		}
+		else
+		{
+			setImageHeaders(format, fname, response);
+		}
+
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+
+	/**
+	 * Whether an export of w x h may be rendered. The area is worked out in long
+	 * so huge sizes can't overflow past the limit.
+	 */
+	protected boolean isValidSize(int w, int h)
+	{
+		return w > 0 && h > 0 && (long) w * h < Constants.MAX_AREA;
+	}
+
+	/**
+	 * Bytes of canvas the export will allocate, 4 bytes a pixel. Invalid sizes
+	 * cost nothing, handleRequest turns them away.
+	 */
+	protected long getRenderCost(HttpServletRequest request)
+	{
+		try
+		{
+			int w = Integer.parseInt(request.getParameter("w"));
+			int h = Integer.parseInt(request.getParameter("h"));
+
+			if (isValidSize(w, h))
+			{
+				// SVG has no raster
+				if ("svg".equals(request.getParameter("format")))
+				{
+					return 0;
+				}
+
+				// Only one strip is held at a time
+				if (isStripped(request.getParameter("format"), request.getParameter("tiled"), w, h))
+				{
+					return 4L * w * Math.min(h, Constants.EXPORT_STRIP_HEIGHT);
+				}
+
+				return 4L * w * h;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			// handled in handleRequest
+		}
+
+		return 0;
+	}
+
 	/**
 	 * Gets the parameters and logs the request.
 	 * 
@@ -131,10 +328,10 @@ public class Export extends HttpServlet
 		Color bg = (tmp != null) ? mxUtils.parseColor(tmp) : null;
 
 		// Checks parameters
-		if (w > 0 && h > 0 && w * h < Constants.MAX_AREA && format != null && xml != null && xml.length() > 0)
+		if (isValidSize(w, h) && format != null && xml != null && xml.length() > 0)
 		{
-			// Allows transparent backgrounds only for PNG
-			if (bg == null && !format.equals("png"))
+			// Allows transparent backgrounds only for PNG and SVG
+			if (bg == null && !format.equals("png") && !format.equals("svg"))
 			{
 				bg = Color.WHITE;
 			}
@@ -151,6 +348,14 @@ public class Export extends HttpServlet
 			{
 				writePdf(url, fname, w, h, bg, xml, response);
 			}
+			else if (format.equals("svg"))
+			{
+				writeSvg(fname, w, h, bg, xml, response);
+			}
+			else if (isStripped(format, request.getParameter("tiled"), w, h))
+			{
+				writeStrips(url, fname, w, h, bg, xml, response);
+			}
 			else
 			{
 				writeImage(url, format, fname, w, h, bg, xml, response);
@@ -197,17 +402,163 @@ public class Export extends HttpServlet
 			mxUtils.setAntiAlias(g2, true, true);
 			renderXml(xml, createCanvas(url, g2));
 
-			if (fname != null)
+			setImageHeaders(format, fname, response);
+
+			ImageIO.write(image, format, response.getOutputStream());
+		}
+	}
+
+	/**
+	 * Writes the XML as SVG elements straight to the response, without drawing
+	 * anything, so the time and size depend on the number of shapes instead of
+	 * the area.
+	 */
+	protected void writeSvg(String fname, int w, int h, Color bg, String xml, HttpServletResponse response)
+			throws IOException, SAXException, ParserConfigurationException
+	{
+		setImageHeaders("svg", fname, response);
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" version=\"1.1\" width=\""
+				+ w + "\" height=\"" + h + "\" viewBox=\"0 0 " + w + " " + h + "\">\n");
+
+		if (bg != null)
+		{
+			// getHexColorString puts the alpha first, SVG wants #rrggbb
+			writer.write("<rect width=\"100%\" height=\"100%\" fill=\"" + String.format("#%06x", bg.getRGB() & 0xFFFFFF) + "\"");
+			if (bg.getAlpha() < 255)
 			{
-				response.setContentType("application/x-unknown");
-				response.setHeader("Content-Disposition", "attachment; filename=\"" + fname + "\"; filename*=UTF-8''" + fname);
+				writer.write(" fill-opacity=\"" + bg.getAlpha() / 255.0 + "\"");
 			}
-			else if (format != null)
+			writer.write("/>\n");
+		}
+
+		try
+		{
+			renderXml(xml, new SvgCanvas2D(writer));
+		}
+		catch (IllegalStateException e)
+		{
+			// The canvas can only throw unchecked exceptions
+			if (e.getCause() instanceof IOException)
 			{
-				response.setContentType("image/" + format.toLowerCase());
+				throw (IOException) e.getCause();
 			}
 
-			ImageIO.write(image, format, response.getOutputStream());
+			throw e;
+		}
+
+		writer.write("</svg>\n");
+		writer.flush();
+	}
+
+	/**
+	 * Large PNGs are rendered in strips unless tiled=false, smaller ones only with
+	 * tiled=true.
+	 */
+	protected boolean isStripped(String format, String tiled, int w, int h)
+	{
+		if (!"png".equals(format) || "false".equals(tiled))
+		{
+			return false;
+		}
+
+		return "true".equals(tiled) || (long) w * h >= Constants.EXPORT_STRIP_AREA;
+	}
+
+	/**
+	 * Renders the XML into strips of Constants.EXPORT_STRIP_HEIGHT rows, moving
+	 * the canvas up for each, and sends every strip as soon as it's drawn. Only
+	 * one strip is held in memory.
+	 */
+	protected void writeStrips(String url, String fname, int w, int h, Color bg, String xml, HttpServletResponse response)
+			throws IOException, SAXException, ParserConfigurationException
+	{
+		setImageHeaders("png", fname, response);
+
+		StripPngWriter png = new StripPngWriter(response.getOutputStream(), w, h, bg == null);
+		Hashtable<String, Image> shortCache = new Hashtable<String, Image>();
+		BufferedImage strip = null;
+
+		for (int y = 0; y < h; y += Constants.EXPORT_STRIP_HEIGHT)
+		{
+			int rows = Math.min(Constants.EXPORT_STRIP_HEIGHT, h - y);
+
+			// Reuses the strip image, only the last one can be shorter
+			if (strip == null || strip.getHeight() != rows)
+			{
+				strip = mxUtils.createBufferedImage(w, rows, bg);
+			}
+			else
+			{
+				clearStrip(strip, bg);
+			}
+
+			Graphics2D g2 = strip.createGraphics();
+			mxUtils.setAntiAlias(g2, true, true);
+			mxGraphicsCanvas2D canvas = createCanvas(url, g2, shortCache);
+			canvas.translate(0, -y);
+			renderXml(xml, canvas);
+			g2.dispose();
+
+			png.writeStrip(strip, rows);
+		}
+
+		png.finish();
+	}
+
+	/**
+	 * Fills the strip with the background, or makes it transparent.
+	 */
+	protected void clearStrip(BufferedImage strip, Color bg)
+	{
+		Graphics2D g2 = strip.createGraphics();
+
+		if (bg != null)
+		{
+			g2.setColor(bg);
+			g2.fillRect(0, 0, strip.getWidth(), strip.getHeight());
+		}
+		else
+		{
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(0, 0, strip.getWidth(), strip.getHeight());
+		}
+
+		g2.dispose();
+	}
+
+	/**
+	 * Sets the PDF content type, and the attachment header if there's a filename.
+	 */
+	protected void setPdfHeaders(String fname, HttpServletResponse response)
+	{
+		response.setContentType("application/pdf");
+
+		if (fname != null)
+		{
+			response.setHeader("Content-Disposition", "attachment; filename=\"" + fname + "\"; filename*=UTF-8''" + fname);
+		}
+	}
+
+	/**
+	 * Sets the content type, or the attachment headers if there's a filename.
+	 */
+	protected void setImageHeaders(String format, String fname, HttpServletResponse response)
+	{
+		if (fname != null)
+		{
+			response.setContentType("application/x-unknown");
+			response.setHeader("Content-Disposition", "attachment; filename=\"" + fname + "\"; filename*=UTF-8''" + fname);
+		}
+		else if ("svg".equals(format))
+		{
+			response.setContentType("image/svg+xml");
+		}
+		else if (format != null)
+		{
+			response.setContentType("image/" + format.toLowerCase());
 		}
 	}
 
@@ -221,12 +572,7 @@ public class Export extends HttpServlet
 	protected void writePdf(String url, String fname, int w, int h, Color bg, String xml, HttpServletResponse response)
 			throws DocumentException, IOException, SAXException, ParserConfigurationException
 	{
-		response.setContentType("application/pdf");
-
-		if (fname != null)
-		{
-			response.setHeader("Content-Disposition", "attachment; filename=\"" + fname + "\"; filename*=UTF-8''" + fname);
-		}
+		setPdfHeaders(fname, response);
 
 		// Fixes PDF offset
 		w += 1;
@@ -268,35 +614,37 @@ public class Export extends HttpServlet
 	protected mxGraphicsCanvas2D createCanvas(String url, Graphics2D g2)
 	{
 		// Caches custom images for the time of the request
-		final Hashtable<String, Image> shortCache = new Hashtable<String, Image>();
+		return createCanvas(url, g2, new Hashtable<String, Image>());
+	}
+
+	/**
+	 * Creates a graphics canvas that caches foreign images in shortCache, so
+	 * several canvases for one request can share it.
+	 */
+	protected mxGraphicsCanvas2D createCanvas(String url, Graphics2D g2, final Hashtable<String, Image> shortCache)
+	{
 		final String domain = url.substring(0, url.lastIndexOf("/"));
 
 		mxGraphicsCanvas2D g2c = new mxGraphicsCanvas2D(g2)
 		{
 			public Image loadImage(String src)
 			{
-				// Uses local image cache by default
-				Hashtable<String, Image> cache = shortCache;
-
-				// Uses global image cache for local images
-				if (src.startsWith(domain))
-				{
-					cache = imageCache;
-				}
-
-				Image image = cache.get(src);
+				// Uses global image cache for local images, local image cache otherwise
+				boolean local = src.startsWith(domain);
+				Image image = local ? imageCache.get(src) : shortCache.get(src);
 
 				if (image == null)
 				{
 					image = super.loadImage(src);
+					Image cached = (image != null) ? image : Constants.EMPTY_IMAGE;
 
-					if (image != null)
+					if (local)
 					{
-						cache.put(src, image);
+						imageCache.put(src, cached);
 					}
 					else
 					{
-						cache.put(src, Constants.EMPTY_IMAGE);
+						shortCache.put(src, cached);
 					}
 				}
 				else if (image == Constants.EMPTY_IMAGE)
@@ -311,4 +659,112 @@ public class Export extends HttpServlet
 		return g2c;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Passes the export through to the client and keeps a copy of it, unless it
+	 * fails or grows past the limit.
+	 */
+	protected static class CapturingResponse extends HttpServletResponseWrapper
+	{
+		private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		private final long limit;
+		private boolean overflowed = false;
+		private int status = HttpServletResponse.SC_OK;
+		private ServletOutputStream outputStream;
+
+		public CapturingResponse(HttpServletResponse response, long limit)
+		{
+			super(response);
+			this.limit = limit;
+		}
+
+		/**
+		 * The bytes sent, or null if they weren't all kept or the export failed.
+		 */
+		public byte[] getCaptured()
+		{
+			return (overflowed || status != HttpServletResponse.SC_OK) ? null : captured.toByteArray();
+		}
+
+		public void setStatus(int sc)
+		{
+			status = sc;
+			super.setStatus(sc);
+		}
+
+		public void sendError(int sc) throws IOException
+		{
+			status = sc;
+			super.sendError(sc);
+		}
+
+		public void sendError(int sc, String msg) throws IOException
+		{
+			status = sc;
+			super.sendError(sc, msg);
+		}
+
+		public ServletOutputStream getOutputStream() throws IOException
+		{
+			if (outputStream == null)
+			{
+				final ServletOutputStream out = super.getOutputStream();
+
+				outputStream = new ServletOutputStream()
+				{
+					public void write(int b) throws IOException
+					{
+						out.write(b);
+						capture(new byte[] { (byte) b }, 0, 1);
+					}
+
+					public void write(byte[] b, int off, int len) throws IOException
+					{
+						out.write(b, off, len);
+						capture(b, off, len);
+					}
+
+					public void flush() throws IOException
+					{
+						out.flush();
+					}
+
+					public void close() throws IOException
+					{
+						out.close();
+					}
+
+					public boolean isReady()
+					{
+						return out.isReady();
+					}
+
+					public void setWriteListener(WriteListener writeListener)
+					{
+						out.setWriteListener(writeListener);
+					}
+				};
+			}
+
+			return outputStream;
+		}
+
+		private void capture(byte[] b, int off, int len)
+		{
+			if (overflowed)
+			{
+				return;
+			}
+
+			if (captured.size() + len > limit)
+			{
+				overflowed = true;
+				captured.reset();
+			}
+			else
+			{
+				captured.write(b, off, len);
+			}
+		}
+	}
+
+}
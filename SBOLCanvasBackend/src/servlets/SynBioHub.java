@@ -33,12 +33,12 @@ import org.synbiohub.frontend.SearchCriteria;
 import org.synbiohub.frontend.SearchQuery;
 import org.synbiohub.frontend.SynBioHubException;
 import org.synbiohub.frontend.SynBioHubFrontend;
-import org.synbiohub.frontend.WebOfRegistriesData;
 import org.xml.sax.SAXException;
 
 import com.google.gson.Gson;
 
 import utils.MxToSBOL;
+import utils.RegistryMatcher;
 import utils.SBOLData;
 import utils.SBOLToMx;
 
@@ -76,10 +76,9 @@ public class SynBioHub extends HttpServlet {
             switch(request.getPathInfo()) {
 				
                 case "/registries": {
-					LinkedList<String> registryURLs = new LinkedList<String>();
-                    for (WebOfRegistriesData registry : SynBioHubFrontend.getRegistries()) {
-						registryURLs.add(registry.getInstanceUrl());
-					}
+					LinkedList<String> registryURLs = new LinkedList<String>(SBOLData.getRegistries());
+					if (SBOLData.getRegistriesRefreshed() > 0)
+						response.setDateHeader("Last-Modified", SBOLData.getRegistriesRefreshed());
 					writeJSONBody(response, registryURLs);
 					cacheResponse(response);
 				}
@@ -122,7 +121,7 @@ public class SynBioHub extends HttpServlet {
 					}
 
 					List<IdentifiedMetadata> collections = sbhf.getRootCollectionMetadata();
-					collections.removeIf(collection -> (collection.getUri().contains("/public/")));
+					collections.removeIf(collection -> (RegistryMatcher.isPublic(collection.getUri())));
 					writeJSONBody(response, collections);
 				}
 					break;
@@ -0,0 +1,124 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A response body that doesn't change while the server runs. It is serialized
+ * and compressed once, and sent with a strong ETag so clients that already have
+ * it get a 304 instead. The gzipped body has its own ETag since its bytes
+ * differ.
+ */
+public class CachedResponse {
+
+	private static final String CACHE_CONTROL = "public, max-age=86400";
+
+	private final String contentType;
+	private final byte[] body;
+	private final byte[] gzipBody;
+	private final String etag;
+	private final String gzipEtag;
+
+	public CachedResponse(String body, String contentType) {
+		this.contentType = contentType;
+		this.body = body.getBytes(StandardCharsets.UTF_8);
+		this.gzipBody = gzip(this.body);
+		String digest = digest(this.body);
+		this.etag = "\"" + digest + "\"";
+		this.gzipEtag = "\"" + digest + "-gzip\"";
+	}
+
+	/**
+	 * Sends the body, compressed if the client accepts gzip, or a 304 if the
+	 * client's copy is current.
+	 */
+	public void write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		boolean gzip = acceptsGzip(request.getHeader("Accept-Encoding"));
+		String tag = gzip ? gzipEtag : etag;
+		response.setHeader("ETag", tag);
+		response.setHeader("Cache-Control", CACHE_CONTROL);
+		response.setHeader("Vary", "Accept-Encoding");
+		if (matches(request.getHeader("If-None-Match"), tag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		byte[] content = body;
+		if (gzip) {
+			content = gzipBody;
+			response.setHeader("Content-Encoding", "gzip");
+		}
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(contentType);
+		response.setContentLength(content.length);
+		response.getOutputStream().write(content);
+	}
+
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null)
+			return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			// If-None-Match uses the weak comparison
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals("*") || tag.equals(etag))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return false;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] params = coding.split(";");
+			if (!params[0].trim().equalsIgnoreCase("gzip"))
+				continue;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						return Double.parseDouble(param.substring(2)) > 0;
+					} catch (NumberFormatException e) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static byte[] gzip(byte[] data) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(data);
+		} catch (IOException e) {
+			// can't happen writing to memory
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static String digest(byte[] data) {
+		try {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
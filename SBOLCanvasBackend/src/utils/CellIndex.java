@@ -0,0 +1,205 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGraphModel;
+
+/**
+ * Typed index of the cells in a decoded graph, built in a single pass over the
+ * model. Each view cell is mapped to its containers, glyphs, proteins, modules,
+ * text boxes and interaction cells so the conversion phases don't have to walk
+ * and filter the children again.
+ */
+public class CellIndex {
+
+	private static final mxCell[] EMPTY = new mxCell[0];
+
+	private Converter converter;
+	private mxCell[] viewCells;
+	private HashMap<mxCell, ViewEntry> views;
+	private HashMap<mxCell, ContainerEntry> containers;
+
+	public CellIndex(mxGraphModel model, Converter converter) {
+		this.converter = converter;
+		views = new HashMap<mxCell, ViewEntry>();
+		containers = new HashMap<mxCell, ContainerEntry>();
+
+		ArrayList<mxCell> viewList = new ArrayList<mxCell>();
+		mxCell cell1 = (mxCell) model.getCell("1");
+		for (int i = 0; i < cell1.getChildCount(); i++) {
+			mxCell viewCell = (mxCell) cell1.getChildAt(i);
+			if (!viewCell.isVertex())
+				continue;
+			viewList.add(viewCell);
+			views.put(viewCell, indexView(viewCell));
+		}
+		viewCells = viewList.toArray(EMPTY);
+	}
+
+	private ViewEntry indexView(mxCell viewCell) {
+		ArrayList<mxCell> containerList = new ArrayList<mxCell>();
+		ArrayList<mxCell> proteins = new ArrayList<mxCell>();
+		ArrayList<mxCell> modules = new ArrayList<mxCell>();
+		ArrayList<mxCell> textBoxes = new ArrayList<mxCell>();
+		ArrayList<mxCell> interactionNodes = new ArrayList<mxCell>();
+		ArrayList<mxCell> interactionEdges = new ArrayList<mxCell>();
+
+		for (int i = 0; i < viewCell.getChildCount(); i++) {
+			mxCell child = (mxCell) viewCell.getChildAt(i);
+			if (child.isVertex()) {
+				if (converter.containerFilter.filter(child)) {
+					containerList.add(child);
+					containers.put(child, indexContainer(child));
+				}
+				if (converter.proteinFilter.filter(child))
+					proteins.add(child);
+				if (converter.moduleFilter.filter(child))
+					modules.add(child);
+				if (converter.textBoxFilter.filter(child))
+					textBoxes.add(child);
+				if (converter.interactionNodeFilter.filter(child))
+					interactionNodes.add(child);
+			} else if (child.isEdge()) {
+				// edges that connect to interaction nodes are handled through the node
+				mxCell source = (mxCell) child.getSource();
+				mxCell target = (mxCell) child.getTarget();
+				if ((source != null && converter.interactionNodeFilter.filter(source))
+						|| (target != null && converter.interactionNodeFilter.filter(target))) {
+					continue;
+				}
+				interactionEdges.add(child);
+			}
+		}
+
+		ViewEntry entry = new ViewEntry();
+		entry.containers = containerList.toArray(EMPTY);
+		entry.proteins = proteins.toArray(EMPTY);
+		entry.modules = modules.toArray(EMPTY);
+		entry.textBoxes = textBoxes.toArray(EMPTY);
+		entry.interactionNodes = interactionNodes.toArray(EMPTY);
+		entry.interactionEdges = interactionEdges.toArray(EMPTY);
+		return entry;
+	}
+
+	private ContainerEntry indexContainer(mxCell circuitContainer) {
+		ArrayList<mxCell> childList = new ArrayList<mxCell>();
+		for (int i = 0; i < circuitContainer.getChildCount(); i++) {
+			mxCell child = (mxCell) circuitContainer.getChildAt(i);
+			if (child.isVertex())
+				childList.add(child);
+		}
+		mxCell[] children = childList.toArray(EMPTY);
+
+		// sort the children based on x with the backbone at the 0'th position
+		Arrays.sort(children, new Comparator<mxCell>() {
+			@Override
+			public int compare(mxCell o1, mxCell o2) {
+				if (converter.backboneFilter.filter(o1))
+					return -1;
+				else if (converter.backboneFilter.filter(o2)) {
+					return 1;
+				} else {
+					return o1.getGeometry().getX() < o2.getGeometry().getX() ? -1 : 1;
+				}
+			}
+		});
+
+		ContainerEntry entry = new ContainerEntry();
+		entry.children = children;
+		ArrayList<mxCell> glyphs = new ArrayList<mxCell>();
+		for (mxCell child : children) {
+			if (entry.backbone == null && converter.backboneFilter.filter(child))
+				entry.backbone = child;
+			if (converter.sequenceFeatureFilter.filter(child))
+				glyphs.add(child);
+		}
+		entry.glyphs = glyphs.toArray(EMPTY);
+		return entry;
+	}
+
+	/**
+	 * Returns the view cells (children of cell 1) in model order.
+	 */
+	public mxCell[] getViewCells() {
+		return viewCells;
+	}
+
+	/**
+	 * Returns the circuit containers of the view with more than just a backbone.
+	 */
+	public mxCell[] getContainers(mxCell viewCell) {
+		ViewEntry entry = views.get(viewCell);
+		return entry != null ? entry.containers : EMPTY;
+	}
+
+	public mxCell[] getProteins(mxCell viewCell) {
+		ViewEntry entry = views.get(viewCell);
+		return entry != null ? entry.proteins : EMPTY;
+	}
+
+	public mxCell[] getModules(mxCell viewCell) {
+		ViewEntry entry = views.get(viewCell);
+		return entry != null ? entry.modules : EMPTY;
+	}
+
+	public mxCell[] getTextBoxes(mxCell viewCell) {
+		ViewEntry entry = views.get(viewCell);
+		return entry != null ? entry.textBoxes : EMPTY;
+	}
+
+	public mxCell[] getInteractionNodes(mxCell viewCell) {
+		ViewEntry entry = views.get(viewCell);
+		return entry != null ? entry.interactionNodes : EMPTY;
+	}
+
+	/**
+	 * Returns the interaction edges of the view, excluding edges that connect to an
+	 * interaction node.
+	 */
+	public mxCell[] getInteractionEdges(mxCell viewCell) {
+		ViewEntry entry = views.get(viewCell);
+		return entry != null ? entry.interactionEdges : EMPTY;
+	}
+
+	/**
+	 * Returns the vertex children of the container, backbone first and then sorted
+	 * by their x position.
+	 */
+	public mxCell[] getOrderedChildren(mxCell circuitContainer) {
+		ContainerEntry entry = containers.get(circuitContainer);
+		return entry != null ? entry.children : EMPTY;
+	}
+
+	/**
+	 * Returns the sequence feature glyphs of the container in x order.
+	 */
+	public mxCell[] getGlyphs(mxCell circuitContainer) {
+		ContainerEntry entry = containers.get(circuitContainer);
+		return entry != null ? entry.glyphs : EMPTY;
+	}
+
+	public mxCell getBackbone(mxCell circuitContainer) {
+		ContainerEntry entry = containers.get(circuitContainer);
+		return entry != null ? entry.backbone : null;
+	}
+
+	private static class ViewEntry {
+		mxCell[] containers;
+		mxCell[] proteins;
+		mxCell[] modules;
+		mxCell[] textBoxes;
+		mxCell[] interactionNodes;
+		mxCell[] interactionEdges;
+	}
+
+	private static class ContainerEntry {
+		mxCell[] children;
+		mxCell[] glyphs;
+		mxCell backbone;
+	}
+
+}
@@ -0,0 +1,157 @@
+package utils;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Reads and writes object fields the way mxObjectCodec does: public fields
+ * directly, everything else through its getter or setter. Lookups are cached
+ * per class for the lifetime of the instance.
+ */
+public class CodecFields {
+
+	private HashMap<Class<?>, HashMap<String, AccessibleObject>> getters;
+	private HashMap<Class<?>, HashMap<String, AccessibleObject>> setters;
+
+	public CodecFields() {
+		getters = new HashMap<Class<?>, HashMap<String, AccessibleObject>>();
+		setters = new HashMap<Class<?>, HashMap<String, AccessibleObject>>();
+	}
+
+	/**
+	 * Returns the value of the named field, or null if it doesn't exist or can't
+	 * be read.
+	 */
+	public Object getFieldValue(Object obj, String name) {
+		if (obj == null || name == null)
+			return null;
+		AccessibleObject getter = getAccessor(getters, obj.getClass(), name, false);
+		try {
+			if (getter instanceof Field)
+				return ((Field) getter).get(obj);
+			if (getter instanceof Method)
+				return ((Method) getter).invoke(obj);
+		} catch (Exception e) {
+			// same as mxObjectCodec, an unreadable field is treated as unset
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the named field. String values are converted to the setter's parameter
+	 * type and collections to arrays where the setter expects one. Values that
+	 * can't be converted are ignored.
+	 */
+	public void setFieldValue(Object obj, String name, Object value) {
+		if (obj == null || name == null)
+			return;
+		AccessibleObject setter = getAccessor(setters, obj.getClass(), name, true);
+		if (setter == null)
+			return;
+		try {
+			if (setter instanceof Field) {
+				Field field = (Field) setter;
+				if (field.getType() == Boolean.class)
+					value = toBoolean(value);
+				field.set(obj, value);
+			} else {
+				Method method = (Method) setter;
+				Class<?> type = method.getParameterTypes()[0];
+				if (type == Boolean.class)
+					value = toBoolean(value);
+				value = convertValueFromXml(type, value);
+				if (type.isArray() && value instanceof Collection) {
+					Collection<?> collection = (Collection<?>) value;
+					value = collection.toArray((Object[]) Array.newInstance(type.getComponentType(), collection.size()));
+				}
+				method.invoke(obj, value);
+			}
+		} catch (Exception e) {
+			// same as mxObjectCodec, a value that doesn't fit isn't set
+		}
+	}
+
+	private static Boolean toBoolean(Object value) {
+		return "1".equals(value) || String.valueOf(value).equalsIgnoreCase("true") ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	private static Object convertValueFromXml(Class<?> type, Object value) {
+		if (!(value instanceof String))
+			return value;
+		String string = (String) value;
+		if (type == boolean.class || type == Boolean.class) {
+			if (string.equals("1") || string.equals("0"))
+				string = string.equals("1") ? "true" : "false";
+			return Boolean.valueOf(string);
+		} else if (type == char.class || type == Character.class) {
+			return Character.valueOf(string.charAt(0));
+		} else if (type == byte.class || type == Byte.class) {
+			return Byte.valueOf(string);
+		} else if (type == short.class || type == Short.class) {
+			return Short.valueOf(string);
+		} else if (type == int.class || type == Integer.class) {
+			return Integer.valueOf(string);
+		} else if (type == long.class || type == Long.class) {
+			return Long.valueOf(string);
+		} else if (type == float.class || type == Float.class) {
+			return Float.valueOf(string);
+		} else if (type == double.class || type == Double.class) {
+			return Double.valueOf(string);
+		}
+		return value;
+	}
+
+	private static AccessibleObject getAccessor(HashMap<Class<?>, HashMap<String, AccessibleObject>> cache,
+			Class<?> type, String name, boolean setter) {
+		HashMap<String, AccessibleObject> accessors = cache.get(type);
+		if (accessors == null) {
+			accessors = new HashMap<String, AccessibleObject>();
+			cache.put(type, accessors);
+		}
+		if (accessors.containsKey(name))
+			return accessors.get(name);
+		AccessibleObject accessor = findAccessor(type, name, setter);
+		accessors.put(name, accessor);
+		return accessor;
+	}
+
+	private static AccessibleObject findAccessor(Class<?> type, String name, boolean setter) {
+		Field field = null;
+		for (Class<?> c = type; c != null && field == null; c = c.getSuperclass()) {
+			try {
+				field = c.getDeclaredField(name);
+			} catch (NoSuchFieldException e) {
+				// check the superclass
+			}
+		}
+		if (field == null || name.length() == 0)
+			return null;
+		if (Modifier.isPublic(field.getModifiers()))
+			return field;
+
+		String suffix = name.substring(0, 1).toUpperCase() + name.substring(1);
+		String methodName;
+		Class<?>[] parameters;
+		if (setter) {
+			methodName = "set" + suffix;
+			parameters = new Class<?>[] { field.getType() };
+		} else {
+			methodName = (boolean.class.isAssignableFrom(field.getType()) ? "is" : "get") + suffix;
+			parameters = new Class<?>[0];
+		}
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			try {
+				return c.getDeclaredMethod(methodName, parameters);
+			} catch (NoSuchMethodException e) {
+				// check the superclass
+			}
+		}
+		return null;
+	}
+
+}
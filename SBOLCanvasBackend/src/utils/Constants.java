@@ -1,6 +1,7 @@
 package utils;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 
 public class Constants
 {
@@ -24,6 +25,12 @@ public class Constants
 		}
 	}
 
+	/**
+	 * The webapp's private temporary directory, only the server can write there.
+	 * Set by ContextListener when the webapp starts, null outside a container.
+	 */
+	public static File CONTEXT_TEMP_DIR;
+
 	/**
 	 * Maximum size (in bytes) for request payloads. Default is 10485760 (10MB).
 	 */
@@ -34,4 +41,168 @@ public class Constants
 	 */
 	public static final int MAX_AREA = 10000 * 10000;
 
+	/**
+	 * Bytes of decoded pixels the export image cache may hold. Default is 64MB. Set
+	 * with -Dsbolcanvas.imageCacheBytes.
+	 */
+	public static final long IMAGE_CACHE_BYTES = Long.getLong("sbolcanvas.imageCacheBytes", 64 * 1024 * 1024);
+
+	/**
+	 * Threads exports are rendered on. Defaults to the number of cores. Set with
+	 * -Dsbolcanvas.exportThreads.
+	 */
+	public static final int EXPORT_THREADS = Integer.getInteger("sbolcanvas.exportThreads",
+			Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Bytes of canvas all running exports may reserve together. Defaults to a
+	 * quarter of the maximum heap. Set with -Dsbolcanvas.exportMemory.
+	 */
+	public static final long EXPORT_MEMORY_BUDGET = Long.getLong("sbolcanvas.exportMemory",
+			Runtime.getRuntime().maxMemory() / 4);
+
+	/**
+	 * Milliseconds an export waits for memory before it's turned away. Default is
+	 * 30 seconds. Set with -Dsbolcanvas.exportQueueTimeout.
+	 */
+	public static final long EXPORT_QUEUE_TIMEOUT = Long.getLong("sbolcanvas.exportQueueTimeout", 30 * 1000);
+
+	/**
+	 * Most exports that may wait for memory at once, the rest are turned away
+	 * straight away. Set with -Dsbolcanvas.exportMaxQueued.
+	 */
+	public static final int EXPORT_MAX_QUEUED = Integer.getInteger("sbolcanvas.exportMaxQueued", 16);
+
+	/**
+	 * Seconds a turned away export is told to wait before trying again. Set with
+	 * -Dsbolcanvas.exportRetryAfter.
+	 */
+	public static final int EXPORT_RETRY_AFTER = Integer.getInteger("sbolcanvas.exportRetryAfter", 10);
+
+	/**
+	 * PNG exports with at least this many pixels are rendered and sent in strips
+	 * instead of as one image. Default is 4 megapixels. Set with
+	 * -Dsbolcanvas.exportStripArea.
+	 */
+	public static final long EXPORT_STRIP_AREA = Long.getLong("sbolcanvas.exportStripArea", 2048 * 2048);
+
+	/**
+	 * Rows in each strip of a strip rendered export. Set with
+	 * -Dsbolcanvas.exportStripHeight.
+	 */
+	public static final int EXPORT_STRIP_HEIGHT = Integer.getInteger("sbolcanvas.exportStripHeight", 512);
+
+	/**
+	 * Bytes of finished exports kept in memory. Default is 32MB. Set with
+	 * -Dsbolcanvas.exportCacheBytes.
+	 */
+	public static final long EXPORT_CACHE_BYTES = Long.getLong("sbolcanvas.exportCacheBytes", 32 * 1024 * 1024);
+
+	/**
+	 * Directory finished exports are moved to when they're pushed out of memory.
+	 * Not set by default, which keeps them in memory only. Set with
+	 * -Dsbolcanvas.exportCacheDir.
+	 */
+	public static final String EXPORT_CACHE_DIR = System.getProperty("sbolcanvas.exportCacheDir");
+
+	/**
+	 * Bytes of finished exports kept in the export cache directory. Default is
+	 * 512MB. Set with -Dsbolcanvas.exportCacheDiskBytes.
+	 */
+	public static final long EXPORT_CACHE_DISK_BYTES = Long.getLong("sbolcanvas.exportCacheDiskBytes",
+			512 * 1024 * 1024);
+
+	/**
+	 * Decoder for posted graphs, "stream" or "dom". The DOM decoder reads the whole
+	 * request into memory before decoding it. Set with
+	 * -Dsbolcanvas.graphDecoder=dom.
+	 */
+	public static final String GRAPH_DECODER = System.getProperty("sbolcanvas.graphDecoder", "stream");
+
+	/**
+	 * Maximum number of SynBioHub documents kept in the remote part cache. Set with
+	 * -Dsbolcanvas.partCacheSize.
+	 */
+	public static final int PART_CACHE_SIZE = Integer.getInteger("sbolcanvas.partCacheSize", 1000);
+
+	/**
+	 * Milliseconds an unversioned cached part is used before it's fetched again.
+	 * Default is 10 minutes. Set with -Dsbolcanvas.partCacheTTL.
+	 */
+	public static final long PART_CACHE_TTL = Long.getLong("sbolcanvas.partCacheTTL", 10 * 60 * 1000);
+
+	/**
+	 * Threads shared by all requests for fetching registry parts. Set with
+	 * -Dsbolcanvas.prefetchThreads.
+	 */
+	public static final int PREFETCH_THREADS = Integer.getInteger("sbolcanvas.prefetchThreads", 16);
+
+	/**
+	 * Pending part fetches before the requesting thread has to fetch them itself.
+	 */
+	public static final int PREFETCH_QUEUE_SIZE = 1000;
+
+	/**
+	 * Maximum concurrent requests to a single registry. Set with
+	 * -Dsbolcanvas.prefetchPerRegistry.
+	 */
+	public static final int PREFETCH_PER_REGISTRY = Integer.getInteger("sbolcanvas.prefetchPerRegistry", 4);
+
+	/**
+	 * Milliseconds a request waits for its prefetched parts before leaving the
+	 * rest to be looked up one at a time. Set with -Dsbolcanvas.prefetchTimeout.
+	 */
+	public static final long PREFETCH_TIMEOUT = Long.getLong("sbolcanvas.prefetchTimeout", 60 * 1000);
+
+	/**
+	 * File the registry list is saved to after each refresh and read from at
+	 * startup. It should be somewhere only the server can write. Default is a file
+	 * in CONTEXT_TEMP_DIR. Set with -Dsbolcanvas.registrySnapshot.
+	 */
+	public static final String REGISTRY_SNAPSHOT = System.getProperty("sbolcanvas.registrySnapshot");
+
+	/**
+	 * Milliseconds between refreshes of the registry list. Default is 1 hour. Set
+	 * with -Dsbolcanvas.registryRefresh.
+	 */
+	public static final long REGISTRY_REFRESH_INTERVAL = Long.getLong("sbolcanvas.registryRefresh", 60 * 60 * 1000);
+
+	/**
+	 * Milliseconds to wait for the Web of Registries before keeping the current
+	 * list. Set with -Dsbolcanvas.registryTimeout.
+	 */
+	public static final long REGISTRY_FETCH_TIMEOUT = Long.getLong("sbolcanvas.registryTimeout", 10 * 1000);
+
+	/**
+	 * File the compiled ontology terms are saved to, so later starts don't parse
+	 * the ontologies. It should be somewhere only the server can write. Default is
+	 * a file in CONTEXT_TEMP_DIR. Set with -Dsbolcanvas.vocabularyCache.
+	 */
+	public static final String VOCABULARY_CACHE = System.getProperty("sbolcanvas.vocabularyCache");
+
+	/**
+	 * Variants held in memory at once when enumerating to a stream. Each SBOL part
+	 * of the response holds this many. Set with -Dsbolcanvas.enumerationWindow.
+	 */
+	public static final int ENUMERATION_WINDOW = Integer.getInteger("sbolcanvas.enumerationWindow", 100);
+
+	/**
+	 * Most threads a single enumeration may ask for. Defaults to the number of
+	 * cores. Set with -Dsbolcanvas.enumerationThreads.
+	 */
+	public static final int ENUMERATION_MAX_THREADS = Integer.getInteger("sbolcanvas.enumerationThreads",
+			Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Most variants a page of enumeration may hold when it's returned as a single
+	 * SBOL document. Set with -Dsbolcanvas.enumerationPageLimit.
+	 */
+	public static final int ENUMERATION_PAGE_LIMIT = Integer.getInteger("sbolcanvas.enumerationPageLimit", 1000);
+
+	/**
+	 * Variants drawn from a derivation whose strategy is sample when the request
+	 * doesn't say how many. Set with -Dsbolcanvas.sampleSize.
+	 */
+	public static final int ENUMERATION_SAMPLE_SIZE = Integer.getInteger("sbolcanvas.sampleSize", 100);
+
 }
\ No newline at end of file
@@ -13,6 +13,7 @@ import com.mxgraph.model.mxGraphModel.Filter;
 import data.CombinatorialInfo;
 import data.Info;
 import data.InteractionInfo;
+import utils.StyleClassifier.Kind;
 
 public class Converter {
 
@@ -48,79 +49,75 @@ public class Converter {
 	protected Hashtable<String, CombinatorialInfo> combinatorialDict;
 	protected Hashtable<String, InteractionInfo> interactionDict;
 	protected LayoutHelper layoutHelper;
+	protected StyleClassifier styleClassifier = new StyleClassifier();
 
 	/**
-	 * Filters mxCells that contain "textBox" in the style string
+	 * Filters mxCells that have a "textBox" style
 	 */
-	static Filter textBoxFilter = new Filter() {
+	Filter textBoxFilter = new Filter() {
 		@Override
 		public boolean filter(Object arg0) {
-			return arg0 instanceof mxCell && ((mxCell) arg0).getStyle().contains(STYLE_TEXTBOX);
+			return styleClassifier.is(arg0, Kind.TEXTBOX);
 		}
 	};
 
 	/**
-	 * Filters mxCells that contain "protein" in the style string
+	 * Filters mxCells that have a "molecularSpeciesGlyph" style
 	 */
-	static Filter proteinFilter = new Filter() {
+	Filter proteinFilter = new Filter() {
 		@Override
 		public boolean filter(Object arg0) {
-			return arg0 instanceof mxCell && ((mxCell) arg0).getStyle().contains(STYLE_MOLECULAR_SPECIES);
+			return styleClassifier.is(arg0, Kind.MOLECULAR_SPECIES);
 		}
 	};
 
 	/**
-	 * 
+	 * Filters mxCells that have a "moduleGlyph" style
 	 */
-	static Filter moduleFilter = new Filter() {
+	Filter moduleFilter = new Filter() {
 		@Override
 		public boolean filter(Object arg0) {
-			return arg0 instanceof mxCell && ((mxCell) arg0).getStyle().contains(STYLE_MODULE);
+			return styleClassifier.is(arg0, Kind.MODULE);
 		}
 	};
 
 	/**
 	 * Filters mxCells that are Circuit Containers
 	 */
-	static Filter containerFilter = new Filter() {
+	Filter containerFilter = new Filter() {
 		@Override
 		public boolean filter(Object arg0) {
-			return (arg0 instanceof mxCell && (((mxCell) arg0).getStyle().contains(STYLE_CIRCUIT_CONTAINER)) && (((mxCell) arg0).getChildCount() > 1));
+			return styleClassifier.is(arg0, Kind.CIRCUIT_CONTAINER) && ((mxCell) arg0).getChildCount() > 1;
 		}
 	};
 
 
 	/**
-	 * Filters mxCells that contain "backbone" in the style string
+	 * Filters mxCells that have a "backbone" style
 	 */
-	static Filter backboneFilter = new Filter() {
+	Filter backboneFilter = new Filter() {
 		@Override
 		public boolean filter(Object arg0) {
-			return arg0 instanceof mxCell && ((mxCell) arg0).getStyle().contains(STYLE_BACKBONE);
+			return styleClassifier.is(arg0, Kind.BACKBONE);
 		}
 	};
 
 	/**
-	 * Filters mxCells that contain "sequenceFeatureGlyph" in the style string
+	 * Filters mxCells that have a "sequenceFeatureGlyph" style
 	 * Additionally filters out the left portion of a Circular Backbone
 	 */
-	static Filter sequenceFeatureFilter = new Filter() {
+	Filter sequenceFeatureFilter = new Filter() {
 		@Override
 		public boolean filter(Object arg0) {
-			if(arg0 instanceof mxCell && ((mxCell) arg0).getStyle().contains(STYLE_SEQUENCE_FEATURE)){
-				if (((mxCell) arg0).getStyle().contains("Cir (Circular Backbone Left)")) {
-					return false;
-				}
-				return true;
-			}
-			return false;
+			return styleClassifier.is(arg0, Kind.SEQUENCE_FEATURE)
+					&& !styleClassifier.is(arg0, Kind.CIRCULAR_BACKBONE_LEFT);
 		}
 	};
 
-	static Filter interactionNodeFilter = new Filter() {
+	Filter interactionNodeFilter = new Filter() {
 		@Override
 		public boolean filter(Object arg0) {
-			return arg0 instanceof mxCell && ((mxCell) arg0).getStyle().contains(STYLE_INTERACTION_NODE);
+			return styleClassifier.is(arg0, Kind.INTERACTION_NODE);
 		}
 	};
 	
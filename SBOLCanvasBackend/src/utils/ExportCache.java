@@ -0,0 +1,262 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finished exports keyed by a hash of everything that goes into them, so
+ * exporting the same diagram again sends the saved bytes instead of rendering
+ * it. Entries are kept in memory up to a byte limit, least recently used
+ * first out. With a directory configured, entries pushed out of memory are
+ * written there and read back on a later hit, up to a second byte limit.
+ *
+ * Images the diagram links to aren't part of the key, a changed image at the
+ * same URL is only picked up once its exports are evicted.
+ */
+public class ExportCache {
+
+	private final long maxBytes;
+	private final long maxEntryBytes;
+	private final File directory;
+	private final long maxDiskBytes;
+
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long bytes;
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long diskBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param directory where evicted entries are kept, null to only cache in memory
+	 */
+	public ExportCache(long maxBytes, File directory, long maxDiskBytes) {
+		this.maxBytes = maxBytes;
+		// one export shouldn't push everything else out
+		this.maxEntryBytes = maxBytes / 4;
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+		if (directory != null)
+			indexDirectory();
+	}
+
+	/**
+	 * Key for an export of xml at w x h with the background and format.
+	 */
+	public static String getKey(String format, int w, int h, String bg, String xml) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((format + "\n" + w + "\n" + h + "\n" + bg + "\n").getBytes(StandardCharsets.UTF_8));
+			digest.update(xml.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The export saved for key, null if there isn't one.
+	 */
+	public byte[] get(String key) {
+		synchronized (entries) {
+			byte[] body = entries.get(key);
+			if (body != null) {
+				hits.incrementAndGet();
+				return body;
+			}
+		}
+		byte[] body = readFile(key);
+		if (body == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		diskHits.incrementAndGet();
+		put(key, body);
+		return body;
+	}
+
+	/**
+	 * Saves an export, spilling the least recently used ones to disk if memory is
+	 * full. Exports over a quarter of the memory limit aren't saved.
+	 */
+	public void put(String key, byte[] body) {
+		if (body.length > maxEntryBytes)
+			return;
+		LinkedHashMap<String, byte[]> evicted = new LinkedHashMap<String, byte[]>();
+		synchronized (entries) {
+			byte[] previous = entries.put(key, body);
+			if (previous != null)
+				bytes -= previous.length;
+			bytes += body.length;
+			Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+			while (bytes > maxBytes && eldest.hasNext()) {
+				Map.Entry<String, byte[]> entry = eldest.next();
+				bytes -= entry.getValue().length;
+				evicted.put(entry.getKey(), entry.getValue());
+				eldest.remove();
+			}
+		}
+		// written outside the lock so hits don't wait on the disk
+		for (Map.Entry<String, byte[]> entry : evicted.entrySet()) {
+			writeFile(entry.getKey(), entry.getValue());
+		}
+	}
+
+	public long getMaxEntryBytes() {
+		return maxEntryBytes;
+	}
+
+	public long getBytes() {
+		synchronized (entries) {
+			return bytes;
+		}
+	}
+
+	public long getDiskBytes() {
+		synchronized (files) {
+			return diskBytes;
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Share of lookups served from memory or disk.
+	 */
+	public double getHitRatio() {
+		long found = hits.get() + diskHits.get();
+		long lookups = found + misses.get();
+		return lookups == 0 ? 0 : (double) found / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "ExportCache[bytes=" + getBytes() + "/" + maxBytes + ", disk=" + getDiskBytes() + "/" + maxDiskBytes
+				+ ", hits=" + hits + ", diskHits=" + diskHits + ", misses=" + misses + "]";
+	}
+
+	private byte[] readFile(String key) {
+		if (directory == null)
+			return null;
+		synchronized (files) {
+			// marks it as recently used too
+			if (files.get(key) == null)
+				return null;
+		}
+		try {
+			return Files.readAllBytes(new File(directory, key).toPath());
+		} catch (IOException e) {
+			System.out.println("Couldn't read the cached export " + key + ": " + e.getMessage());
+			removeFile(key);
+			return null;
+		}
+	}
+
+	private void writeFile(String key, byte[] body) {
+		if (directory == null || body.length > maxDiskBytes)
+			return;
+		synchronized (files) {
+			if (files.containsKey(key))
+				return;
+		}
+		File temp = new File(directory, key + ".tmp");
+		try {
+			Files.write(temp.toPath(), body);
+			Files.move(temp.toPath(), new File(directory, key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("Couldn't save the export " + key + ": " + e.getMessage());
+			temp.delete();
+			return;
+		}
+		synchronized (files) {
+			Long previous = files.put(key, (long) body.length);
+			if (previous != null)
+				diskBytes -= previous;
+			diskBytes += body.length;
+			trimFiles();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files until the directory is within its
+	 * limit. Called holding the files lock.
+	 */
+	private void trimFiles() {
+		Iterator<Map.Entry<String, Long>> eldest = files.entrySet().iterator();
+		while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+			Map.Entry<String, Long> entry = eldest.next();
+			diskBytes -= entry.getValue();
+			new File(directory, entry.getKey()).delete();
+			eldest.remove();
+		}
+	}
+
+	private void removeFile(String key) {
+		synchronized (files) {
+			Long length = files.remove(key);
+			if (length != null)
+				diskBytes -= length;
+		}
+		new File(directory, key).delete();
+	}
+
+	/**
+	 * Picks up the exports left from an earlier run, oldest first.
+	 */
+	private void indexDirectory() {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.out.println("Couldn't create the export cache directory " + directory);
+			return;
+		}
+		File[] saved = directory.listFiles();
+		if (saved == null)
+			return;
+		Arrays.sort(saved, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		synchronized (files) {
+			for (File file : saved) {
+				if (file.getName().endsWith(".tmp")) {
+					file.delete();
+				} else if (file.isFile()) {
+					files.put(file.getName(), file.length());
+					diskBytes += file.length();
+				}
+			}
+			trimFiles();
+		}
+	}
+
+}
@@ -0,0 +1,319 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Stack;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.mxgraph.io.mxCellCodec;
+import com.mxgraph.io.mxCodec;
+import com.mxgraph.io.mxCodecRegistry;
+import com.mxgraph.io.mxObjectCodec;
+import com.mxgraph.model.mxCell;
+import com.mxgraph.model.mxGraphModel;
+import com.mxgraph.model.mxICell;
+
+/**
+ * Decodes mxGraphModel XML into a graph model while it is being parsed, without
+ * reading the request into a string or building a DOM first. The result is the
+ * same as decoding the parsed document with mxCodec: fields are set through the
+ * registered codecs, arrays whose children are named become Hashtables and
+ * cells are inserted into their parents in document order.
+ *
+ * Cells referenced before they appear (eg. an edge whose target comes later)
+ * are created when first referenced and filled in once their element is read.
+ */
+public class GraphReader extends DefaultHandler {
+
+	private static final int MODEL = 0;
+	private static final int ROOT = 1;
+	private static final int OBJECT = 2;
+	private static final int ADD = 3;
+	private static final int SKIP = 4;
+
+	private mxGraphModel model;
+	private mxCodec codec;
+	private CodecFields fields;
+	private HashMap<String, Object> objects;
+	private HashSet<mxICell> unresolved;
+	private ArrayList<mxICell> cells;
+	private Stack<Frame> frames;
+
+	public GraphReader(mxGraphModel model) {
+		this.model = model;
+		codec = new mxCodec();
+		fields = new CodecFields();
+		objects = new HashMap<String, Object>();
+		unresolved = new HashSet<mxICell>();
+		cells = new ArrayList<mxICell>();
+		frames = new Stack<Frame>();
+	}
+
+	/**
+	 * Parses the stream and sets the decoded cells as the root of the model.
+	 */
+	public void read(InputStream stream) throws IOException, SAXException, ParserConfigurationException {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+		factory.newSAXParser().parse(stream, this);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes)
+			throws SAXException {
+		Frame frame = new Frame(qName);
+
+		if (frames.isEmpty()) {
+			if (!qName.equals("mxGraphModel"))
+				throw new SAXException("Expected mxGraphModel but found " + qName + ".");
+			frame.kind = MODEL;
+			frame.codec = mxCodecRegistry.getCodec(qName);
+			frame.obj = model;
+			frame.created = true;
+			decodeAttributes(frame, attributes);
+			frames.push(frame);
+			return;
+		}
+
+		Frame parent = frames.peek();
+		if (parent.kind == MODEL && qName.equals("root")) {
+			frame.kind = ROOT;
+		} else if (parent.kind == ROOT) {
+			decodeCell(frame, attributes);
+		} else if (parent.kind == MODEL || parent.kind == OBJECT) {
+			decodeChild(parent, frame, attributes);
+		} else {
+			frame.kind = SKIP;
+		}
+		frames.push(frame);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		Frame frame = frames.pop();
+		if (frame.kind == ROOT) {
+			insertCells();
+		} else if (frame.kind == ADD) {
+			addObjectValue(frames.peek().obj, frame.as, frame.value, frame.template);
+		} else if (frame.kind == OBJECT && frame.cell == null) {
+			if (!frame.created)
+				create(frame, false);
+			addObjectValue(frames.peek().obj, frame.as, frame.obj, frame.template);
+		}
+	}
+
+	/**
+	 * Decodes a child of the root element. The cell is created right away so that
+	 * other cells can refer to it.
+	 */
+	private void decodeCell(Frame frame, Attributes attributes) throws SAXException {
+		frame.codec = mxCodecRegistry.getCodec(frame.name);
+		if (!(frame.codec instanceof mxCellCodec))
+			throw new SAXException("Cells wrapped in " + frame.name
+					+ " aren't supported by the streaming decoder, use the DOM decoder instead.");
+
+		String id = attributes.getValue("id");
+		mxICell cell = id != null ? (mxICell) objects.get(id) : null;
+		if (cell == null) {
+			cell = (mxICell) cloneTemplate(frame.codec, false);
+			if (id != null && id.length() > 0)
+				objects.put(id, cell);
+		}
+		unresolved.remove(cell);
+		cell.setId(id != null ? id : "");
+
+		frame.kind = OBJECT;
+		frame.obj = cell;
+		frame.cell = cell;
+		frame.created = true;
+		decodeAttributes(frame, attributes);
+		cells.add(cell);
+	}
+
+	/**
+	 * Decodes a child element of an object, the same as mxObjectCodec.decodeChild.
+	 * The child's object is created once its first child is seen, since that
+	 * decides whether an array becomes a list or a Hashtable.
+	 */
+	private void decodeChild(Frame parent, Frame frame, Attributes attributes) {
+		if (!parent.created)
+			create(parent, attributes.getValue("as") != null);
+		if (parent.obj == null) {
+			frame.kind = SKIP;
+			return;
+		}
+
+		String as = attributes.getValue("as");
+		frame.as = as != null ? as : "";
+		if (parent.codec.isExcluded(parent.obj, frame.as, null, false)) {
+			frame.kind = SKIP;
+			return;
+		}
+
+		frame.template = fields.getFieldValue(parent.obj, frame.as);
+		if (frame.template != null && frame.template.getClass().isArray()) {
+			frame.template = null;
+		} else if (frame.template instanceof Collection) {
+			((Collection<?>) frame.template).clear();
+		}
+
+		if (frame.name.equals("add")) {
+			String value = attributes.getValue("value");
+			frame.kind = ADD;
+			frame.value = value != null ? value : "";
+			return;
+		}
+
+		frame.codec = mxCodecRegistry.getCodec(frame.name);
+		if (frame.codec == null) {
+			System.out.println("No codec for " + frame.name + ", skipping it.");
+			frame.kind = SKIP;
+			return;
+		}
+		frame.kind = OBJECT;
+		frame.attributes = new String[attributes.getLength() * 2];
+		for (int i = 0; i < attributes.getLength(); i++) {
+			frame.attributes[i * 2] = attributes.getQName(i);
+			frame.attributes[i * 2 + 1] = attributes.getValue(i);
+		}
+	}
+
+	private void create(Frame frame, boolean namedChildren) {
+		frame.created = true;
+		String id = null;
+		for (int i = 0; i < frame.attributes.length; i += 2) {
+			if (frame.attributes[i].equals("id"))
+				id = frame.attributes[i + 1];
+		}
+		if (id != null)
+			frame.obj = objects.get(id);
+		if (frame.obj == null) {
+			frame.obj = frame.template != null ? frame.template : cloneTemplate(frame.codec, namedChildren);
+			if (frame.obj != null && id != null && id.length() > 0)
+				objects.put(id, frame.obj);
+		}
+		if (frame.obj == null)
+			return;
+		for (int i = 0; i < frame.attributes.length; i += 2) {
+			decodeAttribute(frame, frame.attributes[i], frame.attributes[i + 1]);
+		}
+	}
+
+	private static Object cloneTemplate(mxObjectCodec objCodec, boolean namedChildren) {
+		try {
+			Object obj = objCodec.getTemplate().getClass().getDeclaredConstructor().newInstance();
+			// arrays of named elements are dictionaries
+			if (obj instanceof Collection && namedChildren)
+				obj = new Hashtable<Object, Object>();
+			return obj;
+		} catch (ReflectiveOperationException e) {
+			System.out.println("Couldn't create " + objCodec.getName() + ": " + e);
+			return null;
+		}
+	}
+
+	private void decodeAttributes(Frame frame, Attributes attributes) {
+		for (int i = 0; i < attributes.getLength(); i++) {
+			decodeAttribute(frame, attributes.getQName(i), attributes.getValue(i));
+		}
+	}
+
+	private void decodeAttribute(Frame frame, String name, String value) {
+		if (name.equalsIgnoreCase("as") || name.equalsIgnoreCase("id"))
+			return;
+
+		Object fieldValue = value;
+		if (frame.codec.isReference(frame.obj, name, value, false)) {
+			fieldValue = objects.get(value);
+			if (fieldValue == null && frame.obj instanceof mxICell && value.length() > 0) {
+				// the referenced cell comes later in the document
+				mxICell placeholder = new mxCell();
+				placeholder.setId(value);
+				objects.put(value, placeholder);
+				unresolved.add(placeholder);
+				fieldValue = placeholder;
+			}
+			if (fieldValue == null)
+				return;
+		}
+		if (!frame.codec.isExcluded(frame.obj, name, fieldValue, false))
+			fields.setFieldValue(frame.obj, name, fieldValue);
+	}
+
+	private void addObjectValue(Object obj, String name, Object value, Object template) {
+		if (value == null || value.equals(template))
+			return;
+		if (obj instanceof Map) {
+			@SuppressWarnings("unchecked")
+			Map<Object, Object> map = (Map<Object, Object>) obj;
+			map.put(name, value);
+		} else if (name.length() > 0) {
+			fields.setFieldValue(obj, name, value);
+		} else if (obj instanceof Collection) {
+			@SuppressWarnings("unchecked")
+			Collection<Object> collection = (Collection<Object>) obj;
+			collection.add(value);
+		}
+	}
+
+	/**
+	 * Inserts the cells into their parents and terminals in document order and
+	 * sets the last cell without a parent as the root of the model.
+	 */
+	private void insertCells() {
+		// references to cells that never showed up are dropped, like mxCodec does
+		if (!unresolved.isEmpty()) {
+			for (mxICell cell : cells) {
+				if (unresolved.contains(cell.getParent()))
+					cell.setParent(null);
+				if (unresolved.contains(cell.getTerminal(true)))
+					cell.setTerminal(null, true);
+				if (unresolved.contains(cell.getTerminal(false)))
+					cell.setTerminal(null, false);
+			}
+		}
+
+		mxICell root = null;
+		for (mxICell cell : cells) {
+			codec.insertIntoGraph(cell);
+			if (cell.getParent() == null)
+				root = cell;
+		}
+		if (root != null)
+			model.setRoot(root);
+	}
+
+	private static class Frame {
+		String name;
+		int kind;
+		mxObjectCodec codec;
+		String[] attributes;
+		String as;
+		Object template;
+		Object obj;
+		mxICell cell;
+		boolean created;
+		String value;
+
+		Frame(String name) {
+			this.name = name;
+		}
+	}
+
+}
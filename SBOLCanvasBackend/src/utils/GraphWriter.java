@@ -0,0 +1,237 @@
+package utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.mxgraph.io.mxCodec;
+import com.mxgraph.io.mxCodecRegistry;
+import com.mxgraph.io.mxObjectCodec;
+import com.mxgraph.model.mxGraphModel;
+import com.mxgraph.model.mxICell;
+
+/**
+ * Writes a graph model as mxGraphModel XML straight to an output stream. The
+ * output is the same as encoding the model with mxCodec and serializing the
+ * resulting DOM, but only the element being written is held in memory instead
+ * of the whole document and a string copy of it.
+ *
+ * Fields are encoded the way mxObjectCodec does it: the registered codec
+ * decides what is excluded or written as a reference, values equal to the
+ * codec's template are skipped, primitives become attributes and everything
+ * else becomes a child element.
+ */
+public class GraphWriter {
+
+	private Writer out;
+	private mxCodec codec;
+	private CodecFields fields;
+
+	public GraphWriter(OutputStream stream) {
+		out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+		codec = new mxCodec();
+		fields = new CodecFields();
+	}
+
+	/**
+	 * Writes the model and flushes the stream. The cells are written flat, parent
+	 * before children, like mxModelCodec.
+	 */
+	public void write(mxGraphModel model) throws IOException {
+		out.write("<mxGraphModel><root>");
+		writeCell((mxICell) model.getRoot());
+		out.write("</root></mxGraphModel>");
+		out.flush();
+	}
+
+	private void writeCell(mxICell cell) throws IOException {
+		writeObject(cell, null);
+		for (int i = 0; i < cell.getChildCount(); i++) {
+			writeCell(cell.getChildAt(i));
+		}
+	}
+
+	private void writeObject(Object obj, String as) throws IOException {
+		mxObjectCodec objCodec = mxCodecRegistry.getCodec(mxCodecRegistry.getName(obj));
+		if (objCodec == null) {
+			System.out.println("No codec for " + obj.getClass().getName() + ", skipping it.");
+			return;
+		}
+
+		TreeMap<String, String> attributes = new TreeMap<String, String>();
+		ArrayList<Object[]> children = new ArrayList<Object[]>();
+
+		String id = codec.getId(obj);
+		if (id != null)
+			attributes.put("id", id);
+
+		// fields, starting with the most specific class
+		for (Class<?> type = obj.getClass(); type != null; type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				if (Modifier.isTransient(field.getModifiers()))
+					continue;
+				String name = field.getName();
+				encodeValue(objCodec, obj, name, fields.getFieldValue(obj, name), attributes, children);
+			}
+		}
+
+		// elements
+		if (obj instanceof Object[]) {
+			for (Object element : (Object[]) obj) {
+				encodeValue(objCodec, obj, null, element, attributes, children);
+			}
+		} else if (obj instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+				encodeValue(objCodec, obj, String.valueOf(entry.getKey()), entry.getValue(), attributes, children);
+			}
+		} else if (obj instanceof Collection) {
+			for (Object element : (Collection<?>) obj) {
+				encodeValue(objCodec, obj, null, element, attributes, children);
+			}
+		}
+
+		if (as != null)
+			attributes.put("as", as);
+
+		String elementName = objCodec.getName();
+		out.write('<');
+		out.write(elementName);
+		writeAttributes(attributes);
+		if (children.isEmpty()) {
+			out.write("/>");
+			return;
+		}
+		out.write('>');
+		for (Object[] child : children) {
+			String childName = (String) child[0];
+			if (child[2] != null) {
+				// primitive array or map element
+				out.write("<add");
+				if (childName != null)
+					writeAttribute("as", childName);
+				writeAttribute("value", (String) child[2]);
+				out.write("/>");
+			} else {
+				writeObject(child[1], childName);
+			}
+		}
+		out.write("</");
+		out.write(elementName);
+		out.write('>');
+	}
+
+	private void encodeValue(mxObjectCodec objCodec, Object obj, String name, Object value,
+			TreeMap<String, String> attributes, ArrayList<Object[]> children) {
+		if (value == null || objCodec.isExcluded(obj, name, value, true))
+			return;
+
+		if (objCodec.isReference(obj, name, value, true)) {
+			value = codec.getId(value);
+			if (value == null)
+				return;
+		}
+
+		if (name != null) {
+			Object defaultValue = fields.getFieldValue(objCodec.getTemplate(), name);
+			if (defaultValue != null && defaultValue.equals(value))
+				return;
+		}
+
+		if (value instanceof Boolean)
+			value = ((Boolean) value).booleanValue() ? "1" : "0";
+
+		if (isPrimitiveValue(value)) {
+			if (name == null || obj instanceof Map) {
+				children.add(new Object[] { name, null, String.valueOf(value) });
+			} else {
+				attributes.put(name, String.valueOf(value));
+			}
+		} else {
+			children.add(new Object[] { name, value, null });
+		}
+	}
+
+	private static boolean isPrimitiveValue(Object value) {
+		return value instanceof String || value instanceof Boolean || value instanceof Character
+				|| value instanceof Byte || value instanceof Short || value instanceof Integer
+				|| value instanceof Long || value instanceof Float || value instanceof Double
+				|| value.getClass().isPrimitive();
+	}
+
+	private void writeAttributes(TreeMap<String, String> attributes) throws IOException {
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			writeAttribute(attribute.getKey(), attribute.getValue());
+		}
+	}
+
+	private void writeAttribute(String name, String value) throws IOException {
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		writeEscaped(value);
+		out.write('"');
+	}
+
+	/**
+	 * Escapes the attribute value like the DOM serializer. Line breaks, tabs and
+	 * other control characters are written as character references so they
+	 * survive attribute value normalization in the frontend's parser.
+	 */
+	private void writeEscaped(String value) throws IOException {
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			String replacement;
+			int length = 1;
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '"':
+				replacement = "&quot;";
+				break;
+			case '\n':
+				replacement = "&#10;";
+				break;
+			case '\r':
+				replacement = "&#13;";
+				break;
+			case '\t':
+				replacement = "&#9;";
+				break;
+			default:
+				if (c < 0x20) {
+					replacement = "&#" + (int) c + ";";
+				} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					// characters outside the BMP are written as a single reference
+					replacement = "&#" + value.codePointAt(i) + ";";
+					length = 2;
+				} else {
+					continue;
+				}
+			}
+			out.write(value, start, i - start);
+			out.write(replacement);
+			i += length - 1;
+			start = i + 1;
+		}
+		out.write(value, start, value.length() - start);
+	}
+
+}
@@ -0,0 +1,203 @@
+package utils;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded images kept between exports, bounded by the bytes their pixels take
+ * up. The cache is split into stripes by key, each with its own lock, so
+ * concurrent exports rarely wait on each other. The budget is shared by all the
+ * stripes, and the least recently used image across them is evicted first.
+ *
+ * Cached images are shared between requests and must only be read.
+ */
+public class ImageCache {
+
+	private static final int STRIPES = 16;
+
+	// the key and the map entry
+	private static final int ENTRY_OVERHEAD = 64;
+
+	private final long maxBytes;
+	private final Stripe[] stripes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong residentBytes = new AtomicLong();
+	private final AtomicLong clock = new AtomicLong();
+
+	public ImageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * The image cached for key, null if there isn't one.
+	 */
+	public Image get(String key) {
+		Stripe stripe = getStripe(key);
+		Entry entry;
+		synchronized (stripe) {
+			entry = stripe.entries.get(key);
+			if (entry != null)
+				entry.lastUsed = clock.incrementAndGet();
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.image;
+	}
+
+	/**
+	 * Caches image for key, evicting the least recently used images to make room.
+	 * Images bigger than the whole budget aren't cached at all.
+	 */
+	public void put(String key, Image image) {
+		long bytes = ENTRY_OVERHEAD + 2L * key.length() + getBytes(image);
+		if (bytes > maxBytes)
+			return;
+		Stripe stripe = getStripe(key);
+		synchronized (stripe) {
+			Entry previous = stripe.entries.put(key, new Entry(image, bytes, clock.incrementAndGet()));
+			if (previous != null)
+				stripe.release(previous.bytes);
+			stripe.bytes += bytes;
+			residentBytes.addAndGet(bytes);
+		}
+		// evicting takes the other stripes' locks, so not while holding this one
+		while (residentBytes.get() > maxBytes) {
+			if (!evictOldest())
+				break;
+		}
+	}
+
+	/**
+	 * Evicts the least recently used image of all the stripes. Returns false if
+	 * the cache is empty.
+	 */
+	private boolean evictOldest() {
+		Stripe victim = null;
+		Entry oldest = null;
+		long oldestUsed = Long.MAX_VALUE;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				Iterator<Entry> eldest = stripe.entries.values().iterator();
+				if (eldest.hasNext()) {
+					Entry entry = eldest.next();
+					if (entry.lastUsed < oldestUsed) {
+						victim = stripe;
+						oldest = entry;
+						oldestUsed = entry.lastUsed;
+					}
+				}
+			}
+		}
+		if (victim == null)
+			return false;
+		synchronized (victim) {
+			// it may have been used or replaced since, then the next pass finds another
+			Iterator<Map.Entry<String, Entry>> eldest = victim.entries.entrySet().iterator();
+			if (eldest.hasNext() && eldest.next().getValue() == oldest) {
+				victim.release(oldest.bytes);
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+		return true;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.entries.size();
+			}
+		}
+		return size;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getResidentBytes() {
+		return residentBytes.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ImageCache[size=" + size() + ", bytes=" + residentBytes + "/" + maxBytes + ", hits=" + hits
+				+ ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+
+	private Stripe getStripe(String key) {
+		int hash = key.hashCode();
+		// spread the high bits so similar urls don't share a stripe
+		hash ^= hash >>> 16;
+		return stripes[(hash & 0x7fffffff) % STRIPES];
+	}
+
+	/**
+	 * Bytes held by the image's pixels, assuming 4 bytes a pixel for images that
+	 * aren't buffered.
+	 */
+	private static long getBytes(Image image) {
+		if (image instanceof BufferedImage) {
+			DataBuffer buffer = ((BufferedImage) image).getRaster().getDataBuffer();
+			return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType())
+					/ 8;
+		}
+		int width = image.getWidth(null);
+		int height = image.getHeight(null);
+		if (width < 0 || height < 0)
+			return 0;
+		return 4L * width * height;
+	}
+
+	private class Stripe {
+		final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		long bytes;
+
+		void release(long released) {
+			bytes -= released;
+			residentBytes.addAndGet(-released);
+		}
+	}
+
+	private static class Entry {
+		final Image image;
+		final long bytes;
+		// stamped under the stripe's lock, so it follows the stripe's access order
+		long lastUsed;
+
+		Entry(Image image, long bytes, long lastUsed) {
+			this.image = image;
+			this.bytes = bytes;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+}
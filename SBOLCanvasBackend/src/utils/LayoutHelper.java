@@ -4,7 +4,6 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.sbolstandard.core2.Annotation;
 import org.sbolstandard.core2.GenericTopLevel;
@@ -15,24 +14,30 @@ import com.mxgraph.model.mxCell;
 import com.mxgraph.model.mxGeometry;
 import com.mxgraph.util.mxConstants;
 import com.mxgraph.util.mxPoint;
-import com.mxgraph.view.mxGraph;
+
+import utils.StyleClassifier.Kind;
+import utils.StyleClassifier.ParsedStyle;
 
 public class LayoutHelper {
 	
 	private SBOLDocument document;
-	private mxGraph graph;
+	private StyleClassifier styleClassifier;
 	private HashMap<URI, GenericTopLevel> layouts;
+	// objectRef -> displayId -> decoded glyphs
+	private HashMap<URI, HashMap<String, List<GlyphDescriptor>>> glyphIndex;
 	
-	public LayoutHelper(SBOLDocument document, mxGraph graph) {
+	public LayoutHelper(SBOLDocument document, StyleClassifier styleClassifier) {
 		this.document = document;
-		this.graph = graph;
+		this.styleClassifier = styleClassifier;
 		layouts = new HashMap<URI, GenericTopLevel>();
+		glyphIndex = new HashMap<URI, HashMap<String, List<GlyphDescriptor>>>();
 		
 		for(GenericTopLevel layout : document.getGenericTopLevels()) {
 			if(!layout.getRDFType().getLocalPart().equals("Layout"))
 				continue;
 			URI objectRef = layout.getAnnotation(Converter.createQName("objectRef")).getURIValue();
 			layouts.put(objectRef, layout);
+			glyphIndex.put(objectRef, indexLayout(layout));
 		}
 	}
 	
@@ -58,7 +63,9 @@ public class LayoutHelper {
 	
 	public void addGraphicalNode(URI layoutRef, String displayId, mxCell cell) throws SBOLValidationException {
 		GenericTopLevel layout = getGraphicalLayout(layoutRef);
-		Map<String, Object> styles = graph.getCellStyle(cell);
+		ParsedStyle style = styleClassifier.get(cell);
+		// the decoded glyphs of this layout are rebuilt on the next lookup
+		glyphIndex.remove(layoutRef);
 
 		if (cell.isVertex()) {
 
@@ -72,35 +79,35 @@ public class LayoutHelper {
 			annList.add(new Annotation(Converter.createQName("height"), cellGeometry.getHeight()));
 
 			// styling
-			if (cell.getStyle().contains(mxConstants.STYLE_STROKECOLOR))
+			if (style.getValue(mxConstants.STYLE_STROKECOLOR) != null)
 				annList.add(new Annotation(Converter.createQName("strokeColor"),
-						(String) styles.get(mxConstants.STYLE_STROKECOLOR)));
+						style.getValue(mxConstants.STYLE_STROKECOLOR)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_STROKE_OPACITY))
+			if (style.getValue(mxConstants.STYLE_STROKE_OPACITY) != null)
 				annList.add(new Annotation(Converter.createQName("strokeOpacity"),
-						(String) styles.get(mxConstants.STYLE_STROKE_OPACITY)));
+						style.getValue(mxConstants.STYLE_STROKE_OPACITY)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_STROKEWIDTH))
+			if (style.getValue(mxConstants.STYLE_STROKEWIDTH) != null)
 				annList.add(new Annotation(Converter.createQName("strokeWidth"),
-						(String) styles.get(mxConstants.STYLE_STROKEWIDTH)));
+						style.getValue(mxConstants.STYLE_STROKEWIDTH)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_FILLCOLOR))
+			if (style.getValue(mxConstants.STYLE_FILLCOLOR) != null)
 				annList.add(new Annotation(Converter.createQName("fillColor"),
-						(String) styles.get(mxConstants.STYLE_FILLCOLOR)));
+						style.getValue(mxConstants.STYLE_FILLCOLOR)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_FILL_OPACITY))
+			if (style.getValue(mxConstants.STYLE_FILL_OPACITY) != null)
 				annList.add(new Annotation(Converter.createQName("fillOpacity"),
-						(String) styles.get(mxConstants.STYLE_FILL_OPACITY)));
+						style.getValue(mxConstants.STYLE_FILL_OPACITY)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_FONTCOLOR))
+			if (style.getValue(mxConstants.STYLE_FONTCOLOR) != null)
 				annList.add(new Annotation(Converter.createQName("fontColor"),
-						(String) styles.get(mxConstants.STYLE_FONTCOLOR)));
+						style.getValue(mxConstants.STYLE_FONTCOLOR)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_FONTSIZE))
+			if (style.getValue(mxConstants.STYLE_FONTSIZE) != null)
 				annList.add(new Annotation(Converter.createQName("fontSize"),
-						(String) styles.get(mxConstants.STYLE_FONTSIZE)));
+						style.getValue(mxConstants.STYLE_FONTSIZE)));
 
-			if (cell.getStyle().contains(Converter.STYLE_TEXTBOX))
+			if (style.is(Kind.TEXTBOX))
 				annList.add(new Annotation(Converter.createQName("text"), (String) cell.getValue()));
 
 			annList.add(new Annotation(Converter.createQName("displayId"), displayId));
@@ -113,41 +120,41 @@ public class LayoutHelper {
 			List<Annotation> annList = new ArrayList<Annotation>();
 
 			// styling
-			if (cell.getStyle().contains(mxConstants.STYLE_STROKECOLOR))
+			if (style.getValue(mxConstants.STYLE_STROKECOLOR) != null)
 				annList.add(new Annotation(Converter.createQName("strokeColor"),
-						(String) styles.get(mxConstants.STYLE_STROKECOLOR)));
+						style.getValue(mxConstants.STYLE_STROKECOLOR)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_STROKE_OPACITY))
+			if (style.getValue(mxConstants.STYLE_STROKE_OPACITY) != null)
 				annList.add(new Annotation(Converter.createQName("strokeOpacity"),
-						(String) styles.get(mxConstants.STYLE_STROKE_OPACITY)));
+						style.getValue(mxConstants.STYLE_STROKE_OPACITY)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_STROKEWIDTH))
+			if (style.getValue(mxConstants.STYLE_STROKEWIDTH) != null)
 				annList.add(new Annotation(Converter.createQName("strokeWidth"),
-						(String) styles.get(mxConstants.STYLE_STROKEWIDTH)));
+						style.getValue(mxConstants.STYLE_STROKEWIDTH)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_ENDSIZE))
+			if (style.getValue(mxConstants.STYLE_ENDSIZE) != null)
 				annList.add(new Annotation(Converter.createQName("endSize"),
-						(String) styles.get(mxConstants.STYLE_ENDSIZE)));
+						style.getValue(mxConstants.STYLE_ENDSIZE)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_SOURCE_PERIMETER_SPACING))
+			if (style.getValue(mxConstants.STYLE_SOURCE_PERIMETER_SPACING) != null)
 				annList.add(new Annotation(Converter.createQName("sourceSpacing"),
-						(String) styles.get(mxConstants.STYLE_SOURCE_PERIMETER_SPACING)));
+						style.getValue(mxConstants.STYLE_SOURCE_PERIMETER_SPACING)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_TARGET_PERIMETER_SPACING))
+			if (style.getValue(mxConstants.STYLE_TARGET_PERIMETER_SPACING) != null)
 				annList.add(new Annotation(Converter.createQName("targetSpacing"),
-						(String) styles.get(mxConstants.STYLE_TARGET_PERIMETER_SPACING)));
+						style.getValue(mxConstants.STYLE_TARGET_PERIMETER_SPACING)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_EDGE))
+			if (style.getValue(mxConstants.STYLE_EDGE) != null)
 				annList.add(new Annotation(Converter.createQName("edge"),
-						(String) styles.get(mxConstants.STYLE_EDGE)));
+						style.getValue(mxConstants.STYLE_EDGE)));
 
-			if (cell.getStyle().contains(mxConstants.STYLE_ROUNDED))
+			if (style.getValue(mxConstants.STYLE_ROUNDED) != null)
 				annList.add(new Annotation(Converter.createQName("rounded"),
-						Integer.parseInt((String) styles.get(mxConstants.STYLE_ROUNDED)) == 1));
+						Integer.parseInt(style.getValue(mxConstants.STYLE_ROUNDED)) == 1));
 
-			if (cell.getStyle().contains("curved"))
+			if (style.getValue("curved") != null)
 				annList.add(new Annotation(Converter.createQName("curved"),
-						Integer.parseInt((String) styles.get("curved")) == 1));
+						Integer.parseInt(style.getValue("curved")) == 1));
 
 			annList.add(new Annotation(Converter.createQName("displayId"), displayId));
 
@@ -191,166 +198,232 @@ public class LayoutHelper {
 		return layouts.get(objectRef);
 	}
 	
-	public mxCell[] getGraphicalObjects(URI layoutRef, String displayId) {
-		GenericTopLevel layout = getGraphicalLayout(layoutRef);
-		if(layout == null)
+	/**
+	 * Returns new cells for the glyphs stored under displayId in the layout of
+	 * layoutRef, or null if there are none.
+	 * 
+	 * @param style - The named styles and values the cells should have on top of
+	 *              the stored layout styling
+	 */
+	public mxCell[] getGraphicalObjects(URI layoutRef, String displayId, StyleBuilder style) {
+		HashMap<String, List<GlyphDescriptor>> glyphs = glyphIndex.get(layoutRef);
+		if (glyphs == null) {
+			GenericTopLevel layout = getGraphicalLayout(layoutRef);
+			if (layout == null)
+				return null;
+			glyphs = indexLayout(layout);
+			glyphIndex.put(layoutRef, glyphs);
+		}
+
+		List<GlyphDescriptor> descriptors = glyphs.get(displayId);
+		if (descriptors == null)
 			return null;
-		
-		ArrayList<mxCell> cells = new ArrayList<mxCell>();
 
-		List<Annotation> annotations = layout.getAnnotations();
-		for (Annotation annotation : annotations) {
-			boolean shouldContinue = true;
-			if(annotation.getAnnotations() == null)
+		mxCell[] cells = new mxCell[descriptors.size()];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = createCell(descriptors.get(i), style);
+		}
+		return cells;
+	}
+	
+	public mxCell getGraphicalObject(URI layoutRef, String displayId, StyleBuilder style) {
+		mxCell[] cells = getGraphicalObjects(layoutRef, displayId, style);
+		return cells != null ? cells[0] : null;
+	}
+
+	/**
+	 * Decodes the node and edge glyphs of the layout, keyed by their displayId.
+	 */
+	private static HashMap<String, List<GlyphDescriptor>> indexLayout(GenericTopLevel layout) {
+		HashMap<String, List<GlyphDescriptor>> glyphs = new HashMap<String, List<GlyphDescriptor>>();
+
+		for (Annotation annotation : layout.getAnnotations()) {
+			if (annotation.getAnnotations() == null)
 				continue;
+			String displayId = null;
 			for (Annotation attributeAnn : annotation.getAnnotations()) {
-				if (attributeAnn.getQName().getLocalPart().equals("displayId")
-						&& attributeAnn.getStringValue().equals(displayId)) {
-					shouldContinue = false;
+				if (attributeAnn.getQName().getLocalPart().equals("displayId")) {
+					displayId = attributeAnn.getStringValue();
 					break;
 				}
 			}
-			if (shouldContinue)
+			if (displayId == null)
 				continue;
-			mxCell cell = new mxCell();
-			mxCell[] cellArr = { cell };
-			cell.setGeometry(new mxGeometry());
 
+			GlyphDescriptor descriptor = new GlyphDescriptor();
 			if (annotation.getQName().getLocalPart().equals("nodeGlyph")) {
-				cell.setVertex(true);
+				descriptor.vertex = true;
 				for (Annotation attributeAnn : annotation.getAnnotations()) {
 					String value = attributeAnn.getStringValue();
 					switch (attributeAnn.getQName().getLocalPart()) {
 					case "x":
-						cell.getGeometry().setX(Double.parseDouble(value));
+						descriptor.x = Double.parseDouble(value);
 						break;
 					case "y":
-						cell.getGeometry().setY(Double.parseDouble(value));
+						descriptor.y = Double.parseDouble(value);
 						break;
 					case "width":
-						cell.getGeometry().setWidth(Double.parseDouble(value));
+						descriptor.width = Double.parseDouble(value);
 						break;
 					case "height":
-						cell.getGeometry().setHeight(Double.parseDouble(value));
+						descriptor.height = Double.parseDouble(value);
 						break;
 					case "strokeColor":
-						graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_STROKECOLOR, value);
 						break;
 					case "strokeOpacity":
-						graph.setCellStyles(mxConstants.STYLE_STROKE_OPACITY, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_STROKE_OPACITY, value);
 						break;
 					case "strokeWidth":
-						graph.setCellStyles(mxConstants.STYLE_STROKEWIDTH, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_STROKEWIDTH, value);
 						break;
 					case "fillColor":
-						graph.setCellStyles(mxConstants.STYLE_FILLCOLOR, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_FILLCOLOR, value);
 						break;
 					case "fillOpacity":
-						graph.setCellStyles(mxConstants.STYLE_FILL_OPACITY, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_FILL_OPACITY, value);
 						break;
 					case "fontColor":
-						graph.setCellStyles(mxConstants.STYLE_FONTCOLOR, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_FONTCOLOR, value);
 						break;
 					case "fontSize":
-						graph.setCellStyles(mxConstants.STYLE_FONTSIZE, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_FONTSIZE, value);
 						break;
 					case "text":
-						cell.setValue(value);
+						descriptor.text = value;
 						break;
 					}
 				}
 			} else if (annotation.getQName().getLocalPart().equals("edgeGlyph")) {
-				cell.setEdge(true);
-				List<mxPoint> points = new ArrayList<mxPoint>();
+				descriptor.edge = true;
+				descriptor.points = new ArrayList<mxPoint>();
 				for (Annotation attributeAnn : annotation.getAnnotations()) {
 					String value = attributeAnn.getStringValue();
 					switch (attributeAnn.getQName().getLocalPart()) {
 					case "strokeColor":
-						graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_STROKECOLOR, value);
 						break;
 					case "strokeOpacity":
-						graph.setCellStyles(mxConstants.STYLE_STROKE_OPACITY, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_STROKE_OPACITY, value);
 						break;
 					case "strokeWidth":
-						graph.setCellStyles(mxConstants.STYLE_STROKEWIDTH, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_STROKEWIDTH, value);
 						break;
 					case "endSize":
-						graph.setCellStyles(mxConstants.STYLE_ENDSIZE, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_ENDSIZE, value);
 						break;
 					case "sourceSpacing":
-						graph.setCellStyles(mxConstants.STYLE_SOURCE_PERIMETER_SPACING, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_SOURCE_PERIMETER_SPACING, value);
 						break;
 					case "targetSpacing":
-						graph.setCellStyles(mxConstants.STYLE_TARGET_PERIMETER_SPACING, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_TARGET_PERIMETER_SPACING, value);
 						break;
 					case "edge":
-						graph.setCellStyles(mxConstants.STYLE_EDGE, value, cellArr);
+						descriptor.addStyle(mxConstants.STYLE_EDGE, value);
 						break;
 					case "rounded":
 						if (value.equals("true")) {
-							graph.setCellStyles(mxConstants.STYLE_ROUNDED, "1", cellArr);
+							descriptor.addStyle(mxConstants.STYLE_ROUNDED, "1");
 						}
 						break;
 					case "curved":
 						if (value.equals("true")) {
-							graph.setCellStyles("curved", "1", cellArr);
+							descriptor.addStyle("curved", "1");
 						}
 						break;
 					case "sourcePoint":
-						mxPoint sourcePoint = new mxPoint();
-						for (Annotation sourceAnn : attributeAnn.getAnnotations()) {
-							switch (sourceAnn.getQName().getLocalPart()) {
-							case "x":
-								sourcePoint.setX(Double.parseDouble(sourceAnn.getStringValue()));
-								break;
-							case "y":
-								sourcePoint.setY(Double.parseDouble(sourceAnn.getStringValue()));
-								break;
-							}
-						}
-						cell.getGeometry().setSourcePoint(sourcePoint);
+						descriptor.sourcePoint = decodePoint(attributeAnn);
 						break;
 					case "targetPoint":
-						mxPoint targetPoint = new mxPoint();
-						for (Annotation sourceAnn : attributeAnn.getAnnotations()) {
-							switch (sourceAnn.getQName().getLocalPart()) {
-							case "x":
-								targetPoint.setX(Double.parseDouble(sourceAnn.getStringValue()));
-								break;
-							case "y":
-								targetPoint.setY(Double.parseDouble(sourceAnn.getStringValue()));
-								break;
-							}
-						}
-						cell.getGeometry().setTargetPoint(targetPoint);
+						descriptor.targetPoint = decodePoint(attributeAnn);
 						break;
 					case "point":
-						mxPoint point = new mxPoint();
-						for (Annotation sourceAnn : attributeAnn.getAnnotations()) {
-							switch (sourceAnn.getQName().getLocalPart()) {
-							case "x":
-								point.setX(Double.parseDouble(sourceAnn.getStringValue()));
-								break;
-							case "y":
-								point.setY(Double.parseDouble(sourceAnn.getStringValue()));
-								break;
-							}
-						}
-						points.add(point);
+						descriptor.points.add(decodePoint(attributeAnn));
 						break;
 					}
 				}
-				cell.getGeometry().setPoints(points);
 			}
-			cells.add(cell);
+
+			List<GlyphDescriptor> descriptors = glyphs.get(displayId);
+			if (descriptors == null) {
+				descriptors = new ArrayList<GlyphDescriptor>();
+				glyphs.put(displayId, descriptors);
+			}
+			descriptors.add(descriptor);
 		}
 
-		return cells.size() > 0 ? cells.toArray(new mxCell[0]) : null;
+		return glyphs;
 	}
-	
-	public mxCell getGraphicalObject(URI layoutRef, String displayId) {
-		mxCell[] cells = getGraphicalObjects(layoutRef, displayId);
-		return cells != null ? cells[0] : null;
+
+	private static mxPoint decodePoint(Annotation pointAnn) {
+		mxPoint point = new mxPoint();
+		for (Annotation coordAnn : pointAnn.getAnnotations()) {
+			switch (coordAnn.getQName().getLocalPart()) {
+			case "x":
+				point.setX(Double.parseDouble(coordAnn.getStringValue()));
+				break;
+			case "y":
+				point.setY(Double.parseDouble(coordAnn.getStringValue()));
+				break;
+			}
+		}
+		return point;
+	}
+
+	/**
+	 * Creates a new cell from the decoded glyph. A new cell is needed for every
+	 * lookup, as the caller adds it to the model.
+	 */
+	private static mxCell createCell(GlyphDescriptor descriptor, StyleBuilder style) {
+		mxCell cell = new mxCell();
+		cell.setGeometry(new mxGeometry());
+
+		if (descriptor.vertex) {
+			cell.setVertex(true);
+			cell.getGeometry().setX(descriptor.x);
+			cell.getGeometry().setY(descriptor.y);
+			cell.getGeometry().setWidth(descriptor.width);
+			cell.getGeometry().setHeight(descriptor.height);
+			if (descriptor.text != null)
+				cell.setValue(descriptor.text);
+		} else if (descriptor.edge) {
+			cell.setEdge(true);
+			if (descriptor.sourcePoint != null)
+				cell.getGeometry().setSourcePoint((mxPoint) descriptor.sourcePoint.clone());
+			if (descriptor.targetPoint != null)
+				cell.getGeometry().setTargetPoint((mxPoint) descriptor.targetPoint.clone());
+			List<mxPoint> points = new ArrayList<mxPoint>(descriptor.points.size());
+			for (mxPoint point : descriptor.points) {
+				points.add((mxPoint) point.clone());
+			}
+			cell.getGeometry().setPoints(points);
+		}
+
+		// the stored styling goes between the named styles and the caller's values
+		cell.setStyle(style.derive(descriptor.styles).build());
+
+		return cell;
+	}
+
+	/**
+	 * A node or edge glyph decoded from the layout annotations.
+	 */
+	private static class GlyphDescriptor {
+		boolean vertex;
+		boolean edge;
+		double x;
+		double y;
+		double width;
+		double height;
+		String text;
+		List<String[]> styles = new ArrayList<String[]>();
+		mxPoint sourcePoint;
+		mxPoint targetPoint;
+		List<mxPoint> points;
+
+		void addStyle(String key, String value) {
+			styles.add(new String[] { key, value });
+		}
 	}
 	
 }
@@ -5,9 +5,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -15,6 +15,7 @@ import java.util.List;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 
@@ -47,6 +48,7 @@ import org.sbolstandard.core2.VariableComponent;
 import org.synbiohub.frontend.SynBioHubException;
 import org.synbiohub.frontend.SynBioHubFrontend;
 import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
 import com.mxgraph.io.mxCodec;
 import com.mxgraph.model.mxCell;
@@ -64,10 +66,16 @@ import data.InteractionInfo;
 import data.ModuleInfo;
 import data.VariableComponentInfo;
 import data.CombinatorialInfo;
+import utils.StyleClassifier.Kind;
 
 public class MxToSBOL extends Converter {
 
 	private HashMap<String, String> userTokens;
+	private CellIndex cellIndex;
+	private HashMap<URI, ComponentDefinition> componentDefinitions;
+	private boolean componentDefinitionsStale;
+	private HashSet<URI> copiedTopLevels;
+	private HashMap<URI, Integer> sequenceLengths;
 
 	public MxToSBOL() {
 		this(null);
@@ -142,14 +150,21 @@ public class MxToSBOL extends Converter {
 		combinatorialDict = loadDictionary(dataContainer, COMBINATORIAL_DICT_INDEX);
 		interactionDict = loadDictionary(dataContainer, INTERACTION_DICT_INDEX);
 
+		// index the cells once, all the phases below read from it
+		cellIndex = new CellIndex(model, this);
+
 		// cells may show up in the child array not based on their x location
-		enforceChildOrdering(model, graph);
+		enforceChildOrdering(model, cellIndex);
 		
 		// create the document
 		SBOLDocument document = new SBOLDocument();
 		document.setDefaultURIprefix(URI_PREFIX);
 		document.setComplete(false);
 		document.setCreateDefaults(true);
+		componentDefinitions = new HashMap<URI, ComponentDefinition>();
+		componentDefinitionsStale = true;
+		copiedTopLevels = new HashSet<URI>();
+		sequenceLengths = new HashMap<URI, Integer>();
 		
 		// add registries that we're logged into
 		for (String key : userTokens.keySet()) {
@@ -157,24 +172,29 @@ public class MxToSBOL extends Converter {
 			registry.setUser(userTokens.get(key));
 		}
 		
-		layoutHelper = new LayoutHelper(document, graph);
+		layoutHelper = new LayoutHelper(document, styleClassifier);
 		
-		// Arrays.stream is the java 8 way to cast Object[] to some other array
-		mxCell[] viewCells = Arrays.stream(mxGraphModel.getChildCells(model, model.getCell("1"), true, false))
-		.toArray(mxCell[]::new);
+		mxCell[] viewCells = cellIndex.getViewCells();
+
+		// start fetching the registry parts used by glyphs while the local definitions
+		// are created
+		PartPrefetcher prefetcher = new PartPrefetcher();
+		for (mxCell viewCell : viewCells) {
+			for (mxCell circuitContainer : cellIndex.getContainers(viewCell)) {
+				for (mxCell glyph : cellIndex.getGlyphs(circuitContainer)) {
+					GlyphInfo glyphInfo = (GlyphInfo) infoDict.get(glyph.getValue());
+					if (addPartRegistry(document, glyphInfo))
+						prefetcher.prefetch(document.getRegistries(), URI.create((String) glyph.getValue()));
+				}
+			}
+		}
 		
 		// Get cells and create component definitions
 		for (mxCell viewCell : viewCells) {
-			mxCell[] viewChildren = Arrays.stream(mxGraphModel.getChildCells(model, viewCell, true, false))
-			.toArray(mxCell[]::new);
-			mxCell[] circuitContainers = Arrays.stream(mxGraphModel.filterCells(viewChildren, containerFilter))
-			.toArray(mxCell[]::new);
+			mxCell[] circuitContainers = cellIndex.getContainers(viewCell);
 
 			for (mxCell circuitContainer : circuitContainers) {				
-				Object[] containerChildren = mxGraphModel.getChildCells(model, circuitContainer, true, false);
-
-				mxCell[] glyphs = Arrays.stream(mxGraphModel.filterCells(containerChildren, sequenceFeatureFilter))
-				.toArray(mxCell[]::new);
+				mxCell[] glyphs = cellIndex.getGlyphs(circuitContainer);
 	
 				for(mxCell glyph: glyphs){
 					createComponentDefinition(document, graph, model, glyph);
@@ -192,12 +212,8 @@ public class MxToSBOL extends Converter {
 		// construct the module definitions, and add text annotations for component
 		// definitions
 		for (mxCell viewCell : viewCells) {
-			Object[] viewChildren = mxGraphModel.getChildCells(model, viewCell, true, true);
-			mxCell[] circuitContainers = Arrays.stream(mxGraphModel.filterCells(viewChildren, containerFilter))
-					.toArray(mxCell[]::new);
-	
-			mxCell[] proteins = Arrays.stream(mxGraphModel.filterCells(viewChildren, proteinFilter))
-			.toArray(mxCell[]::new);
+			mxCell[] circuitContainers = cellIndex.getContainers(viewCell);
+			mxCell[] proteins = cellIndex.getProteins(viewCell);
 
 			if (viewCell.getStyle().equals(STYLE_MODULE_VIEW) || circuitContainers.length > 1 || proteins.length > 0) {
 				// module definitions
@@ -208,12 +224,14 @@ public class MxToSBOL extends Converter {
 			}
 		}
 		
+		// the link phase looks up the registry parts, so they need to be in the document
+		if (prefetcher.mergeInto(document, copiedTopLevels))
+			componentDefinitionsStale = true;
+
 		// link the component definitions (create components and set up references)
 		Set<String> handledContainers = new HashSet<String>();
 		for (mxCell viewCell : viewCells) {
-			Object[] viewChildren = mxGraphModel.getChildCells(model, viewCell, true, false);
-			mxCell[] cells = Arrays.stream(mxGraphModel.filterCells(viewChildren, containerFilter))
-			.toArray(mxCell[]::new);
+			mxCell[] cells = cellIndex.getContainers(viewCell);
 		
 			for (mxCell cell : cells) {
 				if (handledContainers.contains((String) cell.getValue()))
@@ -225,11 +243,8 @@ public class MxToSBOL extends Converter {
 
 		// link the module definitions
 		for (mxCell viewCell : viewCells) {
-			Object[] viewChildren = mxGraphModel.getChildCells(model, viewCell, true, true);
-			mxCell[] circuitContainers = Arrays.stream(mxGraphModel.filterCells(viewChildren, containerFilter))
-					.toArray(mxCell[]::new);
-			mxCell[] proteins = Arrays.stream(mxGraphModel.filterCells(viewChildren, proteinFilter))
-					.toArray(mxCell[]::new);
+			mxCell[] circuitContainers = cellIndex.getContainers(viewCell);
+			mxCell[] proteins = cellIndex.getProteins(viewCell);
 			if (viewCell.getStyle().equals(STYLE_MODULE_VIEW) || circuitContainers.length > 1 || proteins.length > 0) {
 				// module definitions
 				linkModuleDefinition(document, graph, model, viewCell);
@@ -261,28 +276,22 @@ public class MxToSBOL extends Converter {
 	private void createModuleDefinition(SBOLDocument document, mxGraph graph, mxGraphModel model, mxCell viewCell)
 			throws SBOLValidationException, TransformerFactoryConfigurationError, TransformerException,
 			URISyntaxException {
-		mxCell[] viewChildren = Arrays.stream(mxGraphModel.getChildCells(model, viewCell, true, false))
-				.toArray(mxCell[]::new);
-		mxCell[] circuitContainers = Arrays.stream(mxGraphModel.filterCells(viewChildren, containerFilter))
-				.toArray(mxCell[]::new);
-		mxCell[] proteins = Arrays.stream(mxGraphModel.filterCells(viewChildren, proteinFilter)).toArray(mxCell[]::new);
-		mxCell[] textBoxes = Arrays.stream(mxGraphModel.filterCells(viewChildren, textBoxFilter))
-				.toArray(mxCell[]::new);
+		mxCell[] circuitContainers = cellIndex.getContainers(viewCell);
+		mxCell[] proteins = cellIndex.getProteins(viewCell);
+		mxCell[] textBoxes = cellIndex.getTextBoxes(viewCell);
 
 		ModuleInfo modInfo = (ModuleInfo) infoDict.get(viewCell.getId());
 				
 		// if the uri is one of the synbiohub ones, just add the layout
 		boolean layoutOnly = false;
-		for (String registry : SBOLData.registries) {
-			if (modInfo.getUriPrefix().contains(registry)) {
-				// if we're not logged in, it still needs to be added to the document
-				if (document.getRegistry(registry) == null) {
-					document.addRegistry(registry);
-				}
-				if (userTokens.containsKey(registry) || modInfo.getUriPrefix().contains("/public/")) {
-					layoutOnly = true;
-					break;
-				}
+		String registry = SBOLData.getRegistryMatcher().match(modInfo.getUriPrefix());
+		if (registry != null) {
+			// if we're not logged in, it still needs to be added to the document
+			if (document.getRegistry(registry) == null) {
+				document.addRegistry(registry);
+			}
+			if (userTokens.containsKey(registry) || RegistryMatcher.isPublic(modInfo.getUriPrefix())) {
+				layoutOnly = true;
 			}
 		}
 		
@@ -366,6 +375,22 @@ public class MxToSBOL extends Converter {
 		}
 	}
 
+	/**
+	 * Adds the registry the glyph's part comes from to the document, if any.
+	 * Returns true if the part should be pulled in from that registry rather than
+	 * created, ie. we're logged in or it's public.
+	 */
+	private boolean addPartRegistry(SBOLDocument document, GlyphInfo glyphInfo) {
+		String registry = SBOLData.getRegistryMatcher().match(glyphInfo.getUriPrefix());
+		if (registry == null)
+			return false;
+		// if we're not logged in, it still needs to be added to the document
+		if (document.getRegistry(registry) == null) {
+			document.addRegistry(registry);
+		}
+		return userTokens.containsKey(registry) || RegistryMatcher.isPublic(glyphInfo.getUriPrefix());
+	}
+
 	private void createComponentDefinition(SBOLDocument document, mxGraph graph, mxGraphModel model,
 			mxCell circuitContainer) throws URISyntaxException, SBOLValidationException,
 			TransformerFactoryConfigurationError, TransformerException, SynBioHubException {
@@ -378,24 +403,14 @@ public class MxToSBOL extends Converter {
 		layoutHelper.createGraphicalLayout(identity, glyphInfo.getDisplayID() + "_Layout");
 		if(circuitContainer.getStyle().equals(STYLE_CIRCUIT_CONTAINER)){
 			
-			Object[] containerChildren = mxGraphModel.getChildCells(model, circuitContainer, true, false);
-			mxCell backboneCell = (mxCell) mxGraphModel.filterCells(containerChildren, backboneFilter)[0];
+			mxCell backboneCell = cellIndex.getBackbone(circuitContainer);
 			layoutHelper.addGraphicalNode(identity, "container", circuitContainer);
 			layoutHelper.addGraphicalNode(identity, "backbone", backboneCell);
 		}
 
 		// if the uri is one of the synbiohub ones, skip the object
-		for (String registry : SBOLData.registries) {
-			if (glyphInfo.getUriPrefix().contains(registry)) {
-				// if we're not logged in, it still needs to be added to the document
-				if (document.getRegistry(registry) == null) {
-					document.addRegistry(registry);
-				}
-				if (userTokens.containsKey(registry) || glyphInfo.getUriPrefix().contains("/public/")) {
-					return;
-				}
-			}
-		}
+		if (addPartRegistry(document, glyphInfo))
+			return;
 
 		// if there isn't a uri prefix give it the default
 		if (glyphInfo.getUriPrefix() == null || glyphInfo.getUriPrefix().equals(""))
@@ -483,27 +498,12 @@ public class MxToSBOL extends Converter {
 	private void linkModuleDefinition(SBOLDocument document, mxGraph graph, mxGraphModel model, mxCell viewCell)
 			throws SBOLValidationException, TransformerFactoryConfigurationError, TransformerException,
 			URISyntaxException {
-		mxCell[] viewChildren = Arrays.stream(mxGraphModel.getChildCells(model, viewCell, true, false))
-				.toArray(mxCell[]::new);
-		mxCell[] modules = Arrays.stream(mxGraphModel.filterCells(viewChildren, moduleFilter)).toArray(mxCell[]::new);
-		mxCell[] interactionNodes = Arrays.stream(mxGraphModel.filterCells(viewChildren, interactionNodeFilter))
-				.toArray(mxCell[]::new);
-
-		// filter out all edges that connect to interaction nodes
-		ArrayList<mxCell> uniqueInteractionCells = new ArrayList<mxCell>();
-		for (mxCell edge : Arrays.stream(mxGraphModel.getChildCells(model, viewCell, false, true))
-				.toArray(mxCell[]::new)) {
-			mxCell source = ((mxCell) edge.getSource());
-			mxCell target = ((mxCell) edge.getTarget());
-			if ((source != null && source.getStyle().contains(STYLE_INTERACTION_NODE))
-					|| (target != null && target.getStyle().contains(STYLE_INTERACTION_NODE))) {
-				continue;
-			}
-			uniqueInteractionCells.add(edge);
-		}
-		for (mxCell interactionNode : interactionNodes) {
-			uniqueInteractionCells.add(interactionNode);
-		}
+		mxCell[] modules = cellIndex.getModules(viewCell);
+
+		// edges that connect to interaction nodes are already filtered out
+		ArrayList<mxCell> uniqueInteractionCells = new ArrayList<mxCell>(
+				Arrays.asList(cellIndex.getInteractionEdges(viewCell)));
+		uniqueInteractionCells.addAll(Arrays.asList(cellIndex.getInteractionNodes(viewCell)));
 		mxCell[] interactionCells = uniqueInteractionCells.toArray(new mxCell[0]);
 
 		ModuleDefinition modDef = document.getModuleDefinition(URI.create((String) viewCell.getId()));
@@ -511,14 +511,9 @@ public class MxToSBOL extends Converter {
 		ModuleInfo modDefInfo = (ModuleInfo) infoDict.get(modDef.getIdentity().toString());
 
 		// if the uri is one of the synbiohub ones, just add the layout
-		boolean layoutOnly = false;
-		for (String registry : SBOLData.registries) {
-			if (modDefInfo.getUriPrefix().contains(registry)
-					&& (userTokens.containsKey(registry) || modDefInfo.getUriPrefix().contains("/public/"))) {
-				layoutOnly = true;
-				break;
-			}
-		}
+		String registry = SBOLData.getRegistryMatcher().match(modDefInfo.getUriPrefix());
+		boolean layoutOnly = registry != null
+				&& (userTokens.containsKey(registry) || RegistryMatcher.isPublic(modDefInfo.getUriPrefix()));
 
 		// module definitions (should already have been created, just need to link
 		// them with modules
@@ -551,7 +546,7 @@ public class MxToSBOL extends Converter {
 				}
 			}
 			layoutHelper.addGraphicalNode(modDef.getIdentity(), interaction.getDisplayId(), interactionCell);
-			if (interactionCell.getStyle().contains(STYLE_INTERACTION_NODE) && layoutOnly) {
+			if (styleClassifier.is(interactionCell, Kind.INTERACTION_NODE) && layoutOnly) {
 				mxCell[] interactionEdges = Arrays.stream(mxGraphModel.getEdges(model, interactionCell))
 						.toArray(mxCell[]::new);
 				for (mxCell interactionEdge : interactionEdges) {
@@ -565,7 +560,7 @@ public class MxToSBOL extends Converter {
 			}
 
 			// populate sources and targets
-			if (interactionCell.getStyle().contains(STYLE_INTERACTION_NODE)) {
+			if (styleClassifier.is(interactionCell, Kind.INTERACTION_NODE)) {
 				// multiple sources/targets
 				mxCell[] interactionEdges = Arrays.stream(mxGraphModel.getEdges(model, interactionCell))
 						.toArray(mxCell[]::new);
@@ -586,9 +581,7 @@ public class MxToSBOL extends Converter {
 			TransformerException, URISyntaxException {
 
 		ComponentDefinition compDef = document.getComponentDefinition(URI.create((String) circuitContainer.getValue()));
-		Object[] containerChildren = mxGraphModel.getChildCells(model, circuitContainer, true, false);
-		mxCell[] glyphs = Arrays.stream(mxGraphModel.filterCells(containerChildren, sequenceFeatureFilter))
-				.toArray(mxCell[]::new);
+		mxCell[] glyphs = cellIndex.getGlyphs(circuitContainer);
 
 		
 		if (compDef.getComponents().size() > 0) {
@@ -630,11 +623,11 @@ public class MxToSBOL extends Converter {
 
 				// container sequence annotation
 				OrientationType orientation = OrientationType.INLINE;
-				String direction = (String) graph.getCellStyle(glyph).get(mxConstants.STYLE_DIRECTION);
+				String direction = styleClassifier.getValue(glyph, mxConstants.STYLE_DIRECTION);
 				if (direction != null && !direction.equals("east")) {
 					orientation = OrientationType.REVERSECOMPLEMENT;
 				}
-				int length = getSequenceLength(document, glyphCD);
+				int length = getSequenceLength(glyphCD);
 				if (length > 0) {
 					start = end + 1;
 					end = start + length - 1;
@@ -717,9 +710,7 @@ public class MxToSBOL extends Converter {
 			URISyntaxException {
 
 		// store extra mxGraph information
-		Object[] viewChildren = mxGraphModel.getChildCells(model, viewCell, true, false);
-		mxCell[] textBoxes = Arrays.stream(mxGraphModel.filterCells(viewChildren, textBoxFilter))
-				.toArray(mxCell[]::new);
+		mxCell[] textBoxes = cellIndex.getTextBoxes(viewCell);
 
 		for (mxCell textBox : textBoxes) {
 			layoutHelper.addGraphicalNode(objectRef, "textBox", textBox);
@@ -776,59 +767,30 @@ public class MxToSBOL extends Converter {
 	 * @param partURI
 	 */
 	private static void addRegistry(SBOLDocument document, URI partURI) {
-		List<SynBioHubFrontend> registries = document.getRegistries();
-		// check if it's already been added
-		for (SynBioHubFrontend registry : registries) {
-			if (partURI.toString().startsWith(registry.getBackendUrl())) {
-				return;
-			}
-		}
-
-		// it wasn't found, so we need to add it without a user token
 		// in the future when we allow registries not in the registry list, it's
 		// probably best to have the frontend send send it without a user token
-		for (String registry : SBOLData.registries) {
-			if (partURI.toString().startsWith(registry)) {
-				document.addRegistry(registry);
-				return;
-			}
+		String registry = SBOLData.getRegistryMatcher().match(partURI);
+		if (registry == null)
+			return;
+
+		// if it wasn't added yet, we need to add it without a user token
+		if (document.getRegistry(registry) == null) {
+			document.addRegistry(registry);
 		}
 	}
 
 	/**
 	 * Enforces that children of circuit containers start with the backbone, and are
-	 * then sorted by their x position.
+	 * then sorted by their x position. The order itself is computed by the cell
+	 * index.
 	 * 
 	 * @param model
-	 * @param graph
+	 * @param cellIndex
 	 */
-	private static void enforceChildOrdering(mxGraphModel model, mxGraph graph) {
-		mxCell[] viewCells = Arrays.stream(mxGraphModel.getChildCells(model, model.getCell("1"), true, false))
-				.toArray(mxCell[]::new);
-
-		for (mxCell viewCell : viewCells) {
-			mxCell[] viewChildren = Arrays.stream(mxGraphModel.getChildCells(model, viewCell, true, false))
-					.toArray(mxCell[]::new);
-			mxCell[] circuitContainers = Arrays.stream(mxGraphModel.filterCells(viewChildren, containerFilter))
-					.toArray(mxCell[]::new);
-			for (mxCell circuitContainer : circuitContainers) {
-				// get the children of the circuit container
-				mxCell[] containerChildren = Arrays
-						.stream(mxGraphModel.getChildCells(model, circuitContainer, true, false))
-						.toArray(mxCell[]::new);
-				// sort the children based on x with the backbone at the 0'th position
-				Arrays.sort(containerChildren, new Comparator<mxCell>() {
-					@Override
-					public int compare(mxCell o1, mxCell o2) {
-						if (o1.getStyle().contains(STYLE_BACKBONE))
-							return -1;
-						else if (o2.getStyle().contains(STYLE_BACKBONE)) {
-							return 1;
-						} else {
-							return o1.getGeometry().getX() < o2.getGeometry().getX() ? -1 : 1;
-						}
-					}
-				});
+	private static void enforceChildOrdering(mxGraphModel model, CellIndex cellIndex) {
+		for (mxCell viewCell : cellIndex.getViewCells()) {
+			for (mxCell circuitContainer : cellIndex.getContainers(viewCell)) {
+				mxCell[] containerChildren = cellIndex.getOrderedChildren(circuitContainer);
 
 				// remove all the cells from the circuit container
 				for (mxCell cell : containerChildren) {
@@ -843,27 +805,67 @@ public class MxToSBOL extends Converter {
 		}
 	}
 
-	private int getSequenceLength(SBOLDocument document, ComponentDefinition componentDef) {
-		if (componentDef.getSequences() != null && componentDef.getSequences().size() > 0) {
-			Sequence sequence = componentDef.getSequences().iterator().next();
-			return sequence.getElements().length();
-		} else {
-			if (componentDef.getSequenceAnnotations() != null && componentDef.getSequenceAnnotations().size() > 0) {
-				int total = 0;
-				for (SequenceAnnotation annotation : componentDef.getSequenceAnnotations()) {
-					if (annotation.getComponent() != null) {
-						Component component = annotation.getComponent();
+	/**
+	 * Returns the length of the definition's sequence, or the sum of the lengths
+	 * of its annotated subcomponents if it doesn't have one. Lengths are
+	 * remembered for the rest of the conversion, so shared subparts are only
+	 * walked once. Walks with an explicit stack so deep hierarchies can't overflow
+	 * it, a definition that contains itself counts as 0.
+	 */
+	private int getSequenceLength(ComponentDefinition componentDef) {
+		if (componentDef == null)
+			return 0;
+		Integer known = sequenceLengths.get(componentDef.getIdentity());
+		if (known != null)
+			return known;
+
+		ArrayDeque<ComponentDefinition> stack = new ArrayDeque<ComponentDefinition>();
+		HashSet<URI> expanded = new HashSet<URI>();
+		stack.push(componentDef);
+		while (!stack.isEmpty()) {
+			ComponentDefinition cd = stack.peek();
+			if (sequenceLengths.containsKey(cd.getIdentity())) {
+				stack.pop();
+				continue;
+			}
 
-						ComponentDefinition subComponentDef = component.getDefinition();
-						total = total + getSequenceLength(document, subComponentDef);
-					}
+			if (expanded.add(cd.getIdentity())) {
+				Set<Sequence> sequences = cd.getSequences();
+				if (sequences != null && sequences.size() > 0) {
+					sequenceLengths.put(cd.getIdentity(), sequences.iterator().next().getElements().length());
+					stack.pop();
+					continue;
+				}
+				// leave cd on the stack until its subcomponents are done
+				for (ComponentDefinition subComponentDef : getAnnotatedDefinitions(cd)) {
+					if (!sequenceLengths.containsKey(subComponentDef.getIdentity())
+							&& !expanded.contains(subComponentDef.getIdentity()))
+						stack.push(subComponentDef);
 				}
-				return total;
 			} else {
-				return 0;
+				int total = 0;
+				for (ComponentDefinition subComponentDef : getAnnotatedDefinitions(cd)) {
+					Integer length = sequenceLengths.get(subComponentDef.getIdentity());
+					if (length != null)
+						total = total + length;
+				}
+				sequenceLengths.put(cd.getIdentity(), total);
+				stack.pop();
 			}
 		}
+		return sequenceLengths.get(componentDef.getIdentity());
+	}
 
+	private static List<ComponentDefinition> getAnnotatedDefinitions(ComponentDefinition componentDef) {
+		List<ComponentDefinition> definitions = new ArrayList<ComponentDefinition>();
+		if (componentDef.getSequenceAnnotations() == null)
+			return definitions;
+		for (SequenceAnnotation annotation : componentDef.getSequenceAnnotations()) {
+			Component component = annotation.getComponent();
+			if (component != null && component.getDefinition() != null)
+				definitions.add(component.getDefinition());
+		}
+		return definitions;
 	}
 
 	private void attachEdgeToParticipant(SBOLDocument document, mxGraphModel model, ModuleDefinition modDef,
@@ -878,7 +880,7 @@ public class MxToSBOL extends Converter {
 		}
 
 		// get the necessary info to generate a participant
-		if (participantCell != null && participantCell.getStyle().contains(STYLE_MODULE)) {
+		if (participantCell != null && styleClassifier.is(participantCell, Kind.MODULE)) {
 			String subPartURI = null;
 			if (isSource) {
 				subPartURI = intInfo.getFromURI().get(interactionEdge.getId());
@@ -916,7 +918,7 @@ public class MxToSBOL extends Converter {
 		}
 
 		// get the necessary info to generate a participant
-		if (participantCell != null && participantCell.getStyle().contains(STYLE_MODULE)) {
+		if (participantCell != null && styleClassifier.is(participantCell, Kind.MODULE)) {
 			String subPartURI = null;
 			if (isSource) {
 				subPartURI = intInfo.getFromURI().get(interactionEdge.getId());
@@ -951,9 +953,9 @@ public class MxToSBOL extends Converter {
 					intInfo.getDisplayID() + "_" + interaction.getParticipations().size(), participantFC.getIdentity(),
 					participantRole);
 			if ((isSource && interactionEdge.getTarget() != null
-					&& interactionEdge.getTarget().getStyle().contains(STYLE_INTERACTION_NODE))
+					&& styleClassifier.is(interactionEdge.getTarget(), Kind.INTERACTION_NODE))
 					|| (!isSource && interactionEdge.getSource() != null
-							&& interactionEdge.getSource().getStyle().contains(STYLE_INTERACTION_NODE))) {
+							&& styleClassifier.is(interactionEdge.getSource(), Kind.INTERACTION_NODE))) {
 				layoutHelper.addGraphicalNode(modDef.getIdentity(), participation.getDisplayId(), interactionEdge);
 			}
 		}
@@ -970,7 +972,7 @@ public class MxToSBOL extends Converter {
 
 			// the functional component doesn't represent a top level componentDefinition,
 			// so create a mapsTo
-			if (parent.getStyle().contains(STYLE_MODULE)) {
+			if (styleClassifier.is(parent, Kind.MODULE)) {
 				ModuleInfo parentInfo = (ModuleInfo) infoDict.get(parent.getValue());
 				Module parentModule = modDef
 						.getModule(parentInfo.getDisplayID() + "_" + parent.getParent().getIndex(parent));
@@ -998,9 +1000,19 @@ public class MxToSBOL extends Converter {
 	private mxGraph parseGraph(InputStream graphStream) throws IOException {
 		mxGraph graph = new mxGraph();
 		((mxGraphModel) graph.getModel()).setMaintainEdgeParent(false);
-		Document document = mxXmlUtils.parseXml(mxUtils.readInputStream(graphStream));
-		mxCodec codec = new mxCodec(document);
-		codec.decode(document.getDocumentElement(), graph.getModel());
+		if (Constants.GRAPH_DECODER.equals("dom")) {
+			Document document = mxXmlUtils.parseXml(mxUtils.readInputStream(graphStream));
+			mxCodec codec = new mxCodec(document);
+			codec.decode(document.getDocumentElement(), graph.getModel());
+			return graph;
+		}
+
+		// decode the cells while the request is read
+		try {
+			new GraphReader((mxGraphModel) graph.getModel()).read(graphStream);
+		} catch (SAXException | ParserConfigurationException e) {
+			throw new IOException("Couldn't parse the graph: " + e.getMessage(), e);
+		}
 		return graph;
 	}
 
@@ -1045,10 +1057,9 @@ public class MxToSBOL extends Converter {
     private ComponentDefinition getComponentDefinitionBetter(SBOLDocument document, URI componentDefinitionURI) {
 
         // Try to find ComponentDefinition in document
-        for(ComponentDefinition cd : document.getComponentDefinitions()) {
-            if(cd.getIdentity().equals(componentDefinitionURI))
-                return cd;
-        }
+        ComponentDefinition localCD = findComponentDefinition(document, componentDefinitionURI);
+        if (localCD != null)
+            return localCD;
 
         // Look in SynBioHub for it
         for (SynBioHubFrontend frontend : document.getRegistries()) {
@@ -1056,7 +1067,7 @@ public class MxToSBOL extends Converter {
             // Fetch from SynBioHub
             SBOLDocument remoteDocument = null;
             try {
-                remoteDocument = frontend.getSBOL(componentDefinitionURI);
+                remoteDocument = RemotePartCache.getInstance().getSBOL(frontend, componentDefinitionURI);
             }
             catch(SynBioHubException e) {
                 System.out.println(e);
@@ -1064,27 +1075,30 @@ public class MxToSBOL extends Converter {
             }
 
             if (remoteDocument != null) {
-                /*
-                    Create a copy of each top level.
-
-                    Not using the libSBOLj method because it skips the entire document
-                    when one top-level throws an exception, which causes it to skip copying
-                    the actual ComponentDefintion sometimes.
-                */
-                for (TopLevel topLevel : remoteDocument.getTopLevels()) {
-                    try {
-                        document.createCopy(topLevel);
-                    }
-                    catch(SBOLValidationException e) {
-                        System.out.println("Failed to copy top-level:\n" + topLevel.getIdentity());
-                        System.out.println(e);
-                        // e.printStackTrace();
-                    }
-                }
+                if (PartPrefetcher.copyTopLevels(document, remoteDocument, copiedTopLevels))
+                    componentDefinitionsStale = true;
                 return remoteDocument.getComponentDefinition(componentDefinitionURI);
             }
         }
 
 		return null;
 	}
+
+	/**
+	 * Looks up a ComponentDefinition already in the document by its identity. The
+	 * index is only rebuilt after definitions were copied in, and
+	 * document.getComponentDefinition isn't used because it goes to the registries
+	 * on a miss.
+	 */
+	private ComponentDefinition findComponentDefinition(SBOLDocument document, URI identity) {
+		ComponentDefinition compDef = componentDefinitions.get(identity);
+		if (compDef == null && componentDefinitionsStale) {
+			for (ComponentDefinition cd : document.getComponentDefinitions()) {
+				componentDefinitions.put(cd.getIdentity(), cd);
+			}
+			componentDefinitionsStale = false;
+			compDef = componentDefinitions.get(identity);
+		}
+		return compDef;
+	}
 }
@@ -0,0 +1,292 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.sbolstandard.core2.SequenceOntology;
+import org.sbolstandard.core2.SystemsBiologyOntology;
+
+/**
+ * The SO and SBO terms below the roles the canvas offers, compiled into lookup
+ * tables. Parsing the ontologies takes a while, so the terms are saved to a
+ * cache file the first time and read back on later starts. The file is rebuilt whenever the parent terms or the libSBOLj jar the
+ * ontologies come from change.
+ *
+ * Arrays returned by this class are shared and must not be modified.
+ */
+public class OntologyTables {
+
+	private static final String SO = "so";
+	private static final String SBO = "sbo";
+	private static final String[] NO_TERMS = new String[0];
+
+	private final List<Term> soTerms;
+	private final HashMap<URI, String[]> soRefinements;
+	private final HashMap<URI, String[]> sboRefinements;
+	private final HashMap<String, URI> sboURIs;
+	private final HashMap<URI, String> sboNames;
+	private final HashMap<URI, Set<URI>> sboDescendants;
+
+	/**
+	 * Loads the tables for the given parent terms from the cache file, or from the
+	 * ontologies if the file is missing or stale.
+	 *
+	 * @param cacheFile null to always parse the ontologies
+	 */
+	public static OntologyTables load(File cacheFile, Collection<URI> soParents, Collection<URI> sboParents) {
+		if (cacheFile == null)
+			return new OntologyTables(compile(soParents, sboParents));
+		String key = cacheKey(soParents, sboParents);
+		List<Term> terms = readCache(cacheFile, key);
+		if (terms == null) {
+			terms = compile(soParents, sboParents);
+			writeCache(cacheFile, key, terms);
+		}
+		return new OntologyTables(terms);
+	}
+
+	private OntologyTables(List<Term> terms) {
+		soTerms = new ArrayList<Term>();
+		soRefinements = new HashMap<URI, String[]>();
+		sboRefinements = new HashMap<URI, String[]>();
+		sboURIs = new HashMap<String, URI>();
+		sboNames = new HashMap<URI, String>();
+		sboDescendants = new HashMap<URI, Set<URI>>();
+
+		HashMap<URI, TreeSet<String>> soNames = new HashMap<URI, TreeSet<String>>();
+		HashMap<URI, TreeSet<String>> sboChildNames = new HashMap<URI, TreeSet<String>>();
+		for (Term term : terms) {
+			if (term.ontology.equals(SO)) {
+				soTerms.add(term);
+				addName(soNames, term);
+			} else {
+				addName(sboChildNames, term);
+				if (term.uri != null) {
+					Set<URI> descendants = sboDescendants.get(term.parent);
+					if (descendants == null) {
+						descendants = new HashSet<URI>();
+						sboDescendants.put(term.parent, descendants);
+					}
+					descendants.add(term.uri);
+				}
+				if (term.uri != null && term.name != null) {
+					sboURIs.put(term.name, term.uri);
+					sboNames.put(term.uri, term.name);
+				}
+			}
+		}
+		for (Map.Entry<URI, TreeSet<String>> names : soNames.entrySet()) {
+			soRefinements.put(names.getKey(), names.getValue().toArray(new String[0]));
+		}
+		for (Map.Entry<URI, TreeSet<String>> names : sboChildNames.entrySet()) {
+			sboRefinements.put(names.getKey(), names.getValue().toArray(new String[0]));
+		}
+	}
+
+	private static void addName(HashMap<URI, TreeSet<String>> names, Term term) {
+		TreeSet<String> children = names.get(term.parent);
+		if (children == null) {
+			children = new TreeSet<String>();
+			names.put(term.parent, children);
+		}
+		// a parent term with no descendants still gets an empty entry
+		if (term.uri != null && term.name != null)
+			children.add(term.name);
+	}
+
+	/**
+	 * SO descendants of every parent, in the order the ontology returned them.
+	 */
+	public List<Term> getSOTerms() {
+		return Collections.unmodifiableList(soTerms);
+	}
+
+	/**
+	 * Sorted names of the SO terms below parent.
+	 */
+	public String[] getSORefinement(URI parent) {
+		String[] names = soRefinements.get(parent);
+		return names != null ? names : NO_TERMS;
+	}
+
+	/**
+	 * Sorted names of the SBO terms below parent.
+	 */
+	public String[] getSBORefinement(URI parent) {
+		String[] names = sboRefinements.get(parent);
+		return names != null ? names : NO_TERMS;
+	}
+
+	/**
+	 * All the SBO terms below parent, not including parent.
+	 */
+	public Set<URI> getSBODescendants(URI parent) {
+		Set<URI> descendants = sboDescendants.get(parent);
+		return descendants != null ? Collections.unmodifiableSet(descendants) : Collections.<URI>emptySet();
+	}
+
+	/**
+	 * URI of an SBO term below one of the parents, null if it isn't one.
+	 */
+	public URI getSBOURI(String name) {
+		return sboURIs.get(name);
+	}
+
+	/**
+	 * Name of an SBO term below one of the parents, null if it isn't one.
+	 */
+	public String getSBOName(URI uri) {
+		return sboNames.get(uri);
+	}
+
+	private static List<Term> compile(Collection<URI> soParents, Collection<URI> sboParents) {
+		List<Term> terms = new ArrayList<Term>();
+		SequenceOntology so = new SequenceOntology();
+		for (URI parent : soParents) {
+			terms.add(new Term(SO, parent, null, null));
+			for (URI uri : so.getDescendantURIsOf(parent)) {
+				terms.add(new Term(SO, parent, uri, so.getName(uri)));
+			}
+		}
+		SystemsBiologyOntology sbo = new SystemsBiologyOntology();
+		for (URI parent : sboParents) {
+			terms.add(new Term(SBO, parent, null, null));
+			for (URI uri : sbo.getDescendantURIsOf(parent)) {
+				terms.add(new Term(SBO, parent, uri, sbo.getName(uri)));
+			}
+		}
+		return terms;
+	}
+
+	private static String cacheKey(Collection<URI> soParents, Collection<URI> sboParents) {
+		TreeSet<String> parents = new TreeSet<String>();
+		for (URI parent : soParents) {
+			parents.add(SO + parent);
+		}
+		for (URI parent : sboParents) {
+			parents.add(SBO + parent);
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((parents + "\n" + ontologyVersion()).getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Identifies the libSBOLj build the ontologies are bundled in, its version
+	 * plus the jar's location, size and modification time, since snapshot builds
+	 * keep the same version.
+	 */
+	private static String ontologyVersion() {
+		StringBuilder version = new StringBuilder();
+		version.append(SequenceOntology.class.getPackage().getImplementationVersion());
+		CodeSource source = SequenceOntology.class.getProtectionDomain().getCodeSource();
+		if (source != null && source.getLocation() != null) {
+			version.append('\t').append(source.getLocation());
+			try {
+				File jar = new File(source.getLocation().toURI());
+				version.append('\t').append(jar.length()).append('\t').append(jar.lastModified());
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				// not a local file, the location will have to do
+			}
+		}
+		return version.toString();
+	}
+
+	/**
+	 * Each line is ontology, parent, term and name separated by tabs, a line with
+	 * just the ontology and parent marks the parent itself. The first line is the
+	 * key of the parent terms and ontologies the file was made for.
+	 */
+	private static List<Term> readCache(File cacheFile, String key) {
+		if (!cacheFile.isFile())
+			return null;
+		List<Term> terms = new ArrayList<Term>();
+		try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+			if (!key.equals(reader.readLine()))
+				return null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 4);
+				if (fields.length == 2) {
+					terms.add(new Term(fields[0], URI.create(fields[1]), null, null));
+				} else if (fields.length == 3) {
+					terms.add(new Term(fields[0], URI.create(fields[1]), URI.create(fields[2]), null));
+				} else if (fields.length == 4) {
+					terms.add(new Term(fields[0], URI.create(fields[1]), URI.create(fields[2]), fields[3]));
+				} else {
+					return null;
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println("Couldn't read the vocabulary cache " + cacheFile + ": " + e.getMessage());
+			return null;
+		}
+		return terms;
+	}
+
+	private static void writeCache(File cacheFile, String key, List<Term> terms) {
+		File temp = new File(cacheFile.getPath() + ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+				writer.write(key);
+				writer.newLine();
+				for (Term term : terms) {
+					writer.write(term.ontology + "\t" + term.parent);
+					if (term.uri != null)
+						writer.write("\t" + term.uri);
+					// names are single line
+					if (term.uri != null && term.name != null)
+						writer.write("\t" + term.name.replaceAll("[\t\r\n]", " "));
+					writer.newLine();
+				}
+			}
+			Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("Couldn't save the vocabulary cache " + cacheFile + ": " + e.getMessage());
+		}
+	}
+
+	public static class Term {
+		public final String ontology;
+		public final URI parent;
+		public final URI uri;
+		public final String name;
+
+		Term(String ontology, URI parent, URI uri, String name) {
+			this.ontology = ontology;
+			this.parent = parent;
+			this.uri = uri;
+			this.name = name;
+		}
+	}
+
+}
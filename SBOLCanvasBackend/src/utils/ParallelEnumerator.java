@@ -0,0 +1,132 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.sbolstandard.core2.SBOLValidationException;
+
+/**
+ * Builds windows of a variant space in parallel. The index range is split in
+ * half recursively down to single windows on a ForkJoinPool, each window is
+ * built on its own, and the results come back in index order so the output
+ * doesn't depend on the number of threads.
+ *
+ * At most one batch of threads * window variants is built at a time, which
+ * bounds memory the same way a single window does. Every enumeration shares
+ * one pool of Constants.ENUMERATION_MAX_THREADS threads, so concurrent requests
+ * can't add up to more threads than that.
+ */
+public class ParallelEnumerator {
+
+	/**
+	 * Builds the variants in [start, end). Called from several threads at once,
+	 * so whatever it shares must only be read.
+	 */
+	public interface WindowBuilder<T> {
+		T build(long start, long end) throws SBOLValidationException;
+	}
+
+	private static final ForkJoinPool sharedPool = new ForkJoinPool(Math.max(1, Constants.ENUMERATION_MAX_THREADS));
+
+	private final int threads;
+	private final ForkJoinPool pool;
+
+	public ParallelEnumerator(int threads) {
+		this.threads = Math.max(1, threads);
+		this.pool = this.threads > 1 ? sharedPool : null;
+	}
+
+	/**
+	 * Number of variants build() should be given at a time.
+	 */
+	public long getBatchSize(int window) {
+		return (long) window * threads;
+	}
+
+	/**
+	 * Builds [start, end) in windows of the given size and returns the windows in
+	 * order.
+	 */
+	public <T> List<T> build(long start, long end, int window, WindowBuilder<T> builder)
+			throws SBOLValidationException {
+		if (pool == null) {
+			List<T> results = new ArrayList<T>();
+			for (long s = start; s < end; s += window) {
+				results.add(builder.build(s, Math.min(end, s + window)));
+			}
+			return results;
+		}
+		try {
+			return pool.invoke(new WindowTask<T>(start, end, window, builder));
+		} catch (RuntimeException e) {
+			// the pool may rethrow it wrapped when it came from another thread
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if (t instanceof BuildException)
+					throw ((BuildException) t).cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops the pool shared by every enumeration.
+	 */
+	public static void shutdown() {
+		sharedPool.shutdownNow();
+	}
+
+	private static class WindowTask<T> extends RecursiveTask<List<T>> {
+		private static final long serialVersionUID = 1L;
+
+		private final long start;
+		private final long end;
+		private final int window;
+		private final WindowBuilder<T> builder;
+
+		WindowTask(long start, long end, int window, WindowBuilder<T> builder) {
+			this.start = start;
+			this.end = end;
+			this.window = window;
+			this.builder = builder;
+		}
+
+		@Override
+		protected List<T> compute() {
+			long windows = (end - start + window - 1) / window;
+			if (windows <= 1) {
+				List<T> results = new ArrayList<T>();
+				try {
+					results.add(builder.build(start, end));
+				} catch (SBOLValidationException e) {
+					throw new BuildException(e);
+				}
+				return results;
+			}
+			// split on a window boundary so every window is built whole
+			long middle = start + (windows / 2) * window;
+			WindowTask<T> left = new WindowTask<T>(start, middle, window, builder);
+			WindowTask<T> right = new WindowTask<T>(middle, end, window, builder);
+			right.fork();
+			List<T> results = left.compute();
+			results.addAll(right.join());
+			return results;
+		}
+	}
+
+	/**
+	 * Carries a builder's checked exception out of the pool.
+	 */
+	private static class BuildException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		final SBOLValidationException cause;
+
+		BuildException(SBOLValidationException cause) {
+			super(cause);
+			this.cause = cause;
+		}
+	}
+
+}
@@ -0,0 +1,234 @@
+package utils;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sbolstandard.core2.SBOLDocument;
+import org.sbolstandard.core2.SBOLValidationException;
+import org.sbolstandard.core2.TopLevel;
+import org.synbiohub.frontend.SynBioHubException;
+import org.synbiohub.frontend.SynBioHubFrontend;
+
+/**
+ * Fetches registry parts concurrently so a design made of many registry parts
+ * costs about one round trip instead of one per part. Fetches run on a shared
+ * bounded pool, with at most Constants.PREFETCH_PER_REGISTRY requests to the same
+ * registry at a time, and go through the RemotePartCache. Requests over a
+ * registry's limit wait in that registry's queue rather than on a pool thread,
+ * so a slow registry can't hold up fetches from the others.
+ */
+public class PartPrefetcher {
+
+	private static final ThreadPoolExecutor executor = createExecutor();
+	private static final ConcurrentHashMap<String, Registry> registries = new ConcurrentHashMap<String, Registry>();
+
+	private LinkedHashMap<URI, Future<SBOLDocument>> fetches;
+
+	public PartPrefetcher() {
+		fetches = new LinkedHashMap<URI, Future<SBOLDocument>>();
+	}
+
+	private static ThreadPoolExecutor createExecutor() {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(Constants.PREFETCH_THREADS, Constants.PREFETCH_THREADS,
+				60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Constants.PREFETCH_QUEUE_SIZE),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "part-prefetch-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Stops the shared fetch threads, fetches still running are interrupted.
+	 */
+	public static void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Starts fetching uri. The registries are tried in order and the first one
+	 * that has the part wins, the same as a lookup in the link phase.
+	 */
+	public void prefetch(List<SynBioHubFrontend> registries, final URI uri) {
+		if (fetches.containsKey(uri))
+			return;
+		Fetch fetch = new Fetch(new ArrayList<SynBioHubFrontend>(registries), uri);
+		fetches.put(uri, fetch.result);
+		fetch.next();
+	}
+
+	private static Registry getRegistry(SynBioHubFrontend frontend) {
+		Registry registry = registries.get(frontend.getBackendUrl());
+		if (registry == null) {
+			registries.putIfAbsent(frontend.getBackendUrl(), new Registry());
+			registry = registries.get(frontend.getBackendUrl());
+		}
+		return registry;
+	}
+
+	/**
+	 * Waits for the fetches and copies the top levels of every fetched part into
+	 * the document, skipping the ones in copied. Parts that failed or didn't
+	 * arrive within Constants.PREFETCH_TIMEOUT are left for the link phase to look
+	 * up again. Returns true if anything was copied.
+	 */
+	public boolean mergeInto(SBOLDocument document, Set<URI> copied) {
+		boolean changed = false;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.PREFETCH_TIMEOUT);
+		for (Map.Entry<URI, Future<SBOLDocument>> fetch : fetches.entrySet()) {
+			SBOLDocument remoteDocument;
+			try {
+				remoteDocument = fetch.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return changed;
+			} catch (ExecutionException e) {
+				System.out.println(e.getCause());
+				continue;
+			} catch (TimeoutException e) {
+				System.out.println("Timed out prefetching " + fetch.getKey());
+				continue;
+			}
+			if (remoteDocument != null && copyTopLevels(document, remoteDocument, copied))
+				changed = true;
+		}
+		fetches.clear();
+		return changed;
+	}
+
+	/**
+	 * Creates a copy of each top level.
+	 *
+	 * Not using the libSBOLj method because it skips the entire document when one
+	 * top-level throws an exception, which causes it to skip copying the actual
+	 * ComponentDefintion sometimes.
+	 *
+	 * Parts often share top levels (common subparts and their
+	 * sequences), so the identities already copied are kept in copied and not
+	 * copied again. Returns true if anything was copied.
+	 */
+	public static boolean copyTopLevels(SBOLDocument document, SBOLDocument remoteDocument, Set<URI> copied) {
+		boolean changed = false;
+		for (TopLevel topLevel : remoteDocument.getTopLevels()) {
+			if (!copied.add(topLevel.getIdentity()))
+				continue;
+			changed = true;
+			try {
+				document.createCopy(topLevel);
+			} catch (SBOLValidationException e) {
+				System.out.println("Failed to copy top-level:\n" + topLevel.getIdentity());
+				System.out.println(e);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * One part, asked of each registry in turn until one has it.
+	 */
+	private static class Fetch implements Runnable {
+		final List<SynBioHubFrontend> frontends;
+		final URI uri;
+		final CompletableFuture<SBOLDocument> result = new CompletableFuture<SBOLDocument>();
+		int next;
+
+		Fetch(List<SynBioHubFrontend> frontends, URI uri) {
+			this.frontends = frontends;
+			this.uri = uri;
+		}
+
+		/**
+		 * Queues the lookup in the next registry, or finishes with null if none had
+		 * the part.
+		 */
+		void next() {
+			if (next == frontends.size()) {
+				result.complete(null);
+				return;
+			}
+			getRegistry(frontends.get(next)).submit(this);
+		}
+
+		@Override
+		public void run() {
+			SynBioHubFrontend frontend = frontends.get(next);
+			SBOLDocument remoteDocument = null;
+			try {
+				remoteDocument = RemotePartCache.getInstance().getSBOL(frontend, uri);
+			} catch (SynBioHubException e) {
+				System.out.println(e);
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+				if (e instanceof Error)
+					throw (Error) e;
+				return;
+			} finally {
+				// the slot goes back however the lookup ended
+				getRegistry(frontend).finished();
+			}
+			if (remoteDocument != null) {
+				result.complete(remoteDocument);
+			} else {
+				next++;
+				next();
+			}
+		}
+	}
+
+	/**
+	 * The fetches running against one registry and the ones waiting for a turn.
+	 */
+	private static class Registry {
+		private final ArrayDeque<Fetch> waiting = new ArrayDeque<Fetch>();
+		private int running;
+
+		void submit(Fetch fetch) {
+			synchronized (this) {
+				if (running >= Constants.PREFETCH_PER_REGISTRY) {
+					waiting.add(fetch);
+					return;
+				}
+				running++;
+			}
+			// outside the lock, a full pool runs it on this thread
+			executor.execute(fetch);
+		}
+
+		/**
+		 * Hands the finished fetch's turn to the next one waiting.
+		 */
+		void finished() {
+			Fetch fetch;
+			synchronized (this) {
+				fetch = waiting.poll();
+				if (fetch == null) {
+					running--;
+					return;
+				}
+			}
+			executor.execute(fetch);
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.synbiohub.frontend.SynBioHubFrontend;
+import org.synbiohub.frontend.WebOfRegistriesData;
+
+/**
+ * The registries in the Web of Registries. Starts from the snapshot saved by the
+ * last refresh, or the bundled default if there is none, and refreshes in the
+ * background so no request waits on the Web of Registries. A refresh that fails
+ * or times out keeps the current list. The snapshot is only kept in the
+ * configured file or the webapp's own temporary directory, since whoever can
+ * write it decides where parts and tokens are sent.
+ *
+ * The list and its matcher are published together, readers always see a
+ * consistent pair.
+ */
+public class RegistryList {
+
+	private static final String[] DEFAULT_REGISTRIES = { "https://synbiohub.org" };
+
+	private static final RegistryList instance = new RegistryList(getSnapshotFile());
+
+	private final File snapshotFile;
+	private volatile Snapshot current;
+	private ScheduledExecutorService scheduler;
+	// the frontend doesn't let us set a timeout, so fetches run here and are waited on
+	private final ExecutorService fetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "registry-fetch");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public static RegistryList getInstance() {
+		return instance;
+	}
+
+	private static File getSnapshotFile() {
+		if (Constants.REGISTRY_SNAPSHOT != null)
+			return new File(Constants.REGISTRY_SNAPSHOT);
+		if (Constants.CONTEXT_TEMP_DIR != null)
+			return new File(Constants.CONTEXT_TEMP_DIR, "registries.txt");
+		return null;
+	}
+
+	/**
+	 * @param snapshotFile null to always start from the default
+	 */
+	public RegistryList(File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+		List<String> registries = readSnapshot();
+		if (registries.isEmpty())
+			registries = Arrays.asList(DEFAULT_REGISTRIES);
+		current = new Snapshot(registries, 0);
+	}
+
+	/**
+	 * Starts refreshing in the background, right away and then every
+	 * Constants.REGISTRY_REFRESH_INTERVAL milliseconds.
+	 */
+	public synchronized void start() {
+		if (scheduler != null)
+			return;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "registry-refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		}, 0, Constants.REGISTRY_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops refreshing and any fetch in progress.
+	 */
+	public synchronized void shutdown() {
+		if (scheduler != null)
+			scheduler.shutdownNow();
+		fetcher.shutdownNow();
+	}
+
+	/**
+	 * Fetches the list from the Web of Registries, waiting at most
+	 * Constants.REGISTRY_FETCH_TIMEOUT milliseconds. Returns true if the list was
+	 * replaced.
+	 */
+	public boolean refresh() {
+		Future<List<String>> fetch = fetcher.submit(new Callable<List<String>>() {
+			@Override
+			public List<String> call() throws Exception {
+				List<String> registries = new ArrayList<String>();
+				for (WebOfRegistriesData registry : SynBioHubFrontend.getRegistries()) {
+					registries.add(registry.getInstanceUrl());
+				}
+				return registries;
+			}
+		});
+
+		List<String> registries;
+		try {
+			registries = fetch.get(Constants.REGISTRY_FETCH_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			fetch.cancel(true);
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			System.out.println("Failed to fetch the registries, keeping the last list.");
+			e.getCause().printStackTrace();
+			return false;
+		} catch (TimeoutException e) {
+			fetch.cancel(true);
+			System.out.println("Timed out fetching the registries, keeping the last list.");
+			return false;
+		}
+
+		if (registries.isEmpty())
+			return false;
+		current = new Snapshot(registries, System.currentTimeMillis());
+		writeSnapshot(registries);
+		return true;
+	}
+
+	public Set<String> getRegistries() {
+		return current.registries;
+	}
+
+	public RegistryMatcher getMatcher() {
+		return current.matcher;
+	}
+
+	/**
+	 * Time of the last successful refresh in milliseconds, 0 if the list still
+	 * comes from the snapshot or the default.
+	 */
+	public long getLastRefresh() {
+		return current.refreshed;
+	}
+
+	private List<String> readSnapshot() {
+		List<String> registries = new ArrayList<String>();
+		if (snapshotFile == null || !snapshotFile.isFile())
+			return registries;
+		try (BufferedReader reader = Files.newBufferedReader(snapshotFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0)
+					registries.add(line);
+			}
+		} catch (IOException e) {
+			System.out.println("Couldn't read the registry snapshot " + snapshotFile + ": " + e.getMessage());
+		}
+		return registries;
+	}
+
+	private void writeSnapshot(List<String> registries) {
+		if (snapshotFile == null)
+			return;
+		File temp = new File(snapshotFile.getPath() + ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+				for (String registry : registries) {
+					writer.write(registry);
+					writer.newLine();
+				}
+			}
+			// readers of the file never see half of it
+			Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("Couldn't save the registry snapshot " + snapshotFile + ": " + e.getMessage());
+		}
+	}
+
+	private static class Snapshot {
+		final Set<String> registries;
+		final RegistryMatcher matcher;
+		final long refreshed;
+
+		Snapshot(List<String> registries, long refreshed) {
+			this.registries = Collections.unmodifiableSet(new LinkedHashSet<String>(registries));
+			this.matcher = new RegistryMatcher(this.registries);
+			this.refreshed = refreshed;
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package utils;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Finds the registry a URI belongs to. Registry URLs are kept in a trie keyed
+ * on the scheme and host followed by the path segments, so a lookup costs one
+ * step per segment of the URI no matter how many registries there are. When
+ * registries are nested the longest one wins.
+ */
+public class RegistryMatcher {
+
+	private static final String PUBLIC_SEGMENT = "/public/";
+
+	private Node root;
+
+	public RegistryMatcher() {
+		root = new Node();
+	}
+
+	public RegistryMatcher(Collection<String> registries) {
+		this();
+		for (String registry : registries) {
+			add(registry);
+		}
+	}
+
+	public void add(String registry) {
+		List<String> keys = split(registry);
+		if (keys == null)
+			return;
+		Node node = root;
+		for (String key : keys) {
+			Node child = node.children.get(key);
+			if (child == null) {
+				child = new Node();
+				node.children.put(key, child);
+			}
+			node = child;
+		}
+		node.registry = registry;
+	}
+
+	/**
+	 * Returns the registry URL, as it was added, that uri starts with. Null if it
+	 * isn't from a known registry.
+	 */
+	public String match(String uri) {
+		List<String> keys = split(uri);
+		if (keys == null)
+			return null;
+		String registry = null;
+		Node node = root;
+		for (String key : keys) {
+			node = node.children.get(key);
+			if (node == null)
+				break;
+			if (node.registry != null)
+				registry = node.registry;
+		}
+		return registry;
+	}
+
+	public String match(URI uri) {
+		return uri != null ? match(uri.toString()) : null;
+	}
+
+	/**
+	 * True if the uri is in a public collection, which can be pulled from the
+	 * registry without logging in.
+	 */
+	public static boolean isPublic(String uri) {
+		return uri != null && uri.contains(PUBLIC_SEGMENT);
+	}
+
+	/**
+	 * Splits eg. https://synbiohub.org/public/igem/ into "https://synbiohub.org",
+	 * "public", "igem". Empty segments are dropped so trailing slashes don't
+	 * matter.
+	 */
+	private static List<String> split(String uri) {
+		if (uri == null)
+			return null;
+		int schemeEnd = uri.indexOf("://");
+		if (schemeEnd < 0)
+			return null;
+		int pathStart = uri.indexOf('/', schemeEnd + 3);
+		if (pathStart < 0)
+			pathStart = uri.length();
+		int pathEnd = pathStart;
+		while (pathEnd < uri.length() && uri.charAt(pathEnd) != '?' && uri.charAt(pathEnd) != '#')
+			pathEnd++;
+
+		List<String> keys = new ArrayList<String>();
+		// scheme and host are case insensitive
+		keys.add(uri.substring(0, pathStart).toLowerCase());
+		int start = pathStart;
+		while (start < pathEnd) {
+			int end = uri.indexOf('/', start + 1);
+			if (end < 0 || end > pathEnd)
+				end = pathEnd;
+			if (end > start + 1)
+				keys.add(uri.substring(start + 1, end));
+			start = end;
+		}
+		return keys;
+	}
+
+	private static class Node {
+		HashMap<String, Node> children = new HashMap<String, Node>();
+		String registry;
+	}
+
+}
@@ -0,0 +1,167 @@
+package utils;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sbolstandard.core2.SBOLDocument;
+import org.synbiohub.frontend.SynBioHubException;
+import org.synbiohub.frontend.SynBioHubFrontend;
+
+/**
+ * Process wide cache of SBOL documents fetched from SynBioHub. Entries are keyed
+ * by registry, URI and the user token they were fetched with, so private parts
+ * are only served to the user who could fetch them. Versioned URIs never change
+ * and are kept until evicted, everything else expires after the time to live.
+ * The least recently used entry is evicted once the cache is full.
+ *
+ * Concurrent misses for the same key wait for a single fetch. Cached documents
+ * are shared between requests and must only be read.
+ */
+public class RemotePartCache {
+
+	private static final RemotePartCache instance = new RemotePartCache(Constants.PART_CACHE_SIZE,
+			Constants.PART_CACHE_TTL);
+
+	private final int maxEntries;
+	private final long timeToLive;
+	private final LinkedHashMap<String, Entry> entries;
+	private final ConcurrentHashMap<String, FutureTask<SBOLDocument>> inFlight;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public static RemotePartCache getInstance() {
+		return instance;
+	}
+
+	public RemotePartCache(int maxEntries, long timeToLive) {
+		this.maxEntries = maxEntries;
+		this.timeToLive = timeToLive;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		this.inFlight = new ConcurrentHashMap<String, FutureTask<SBOLDocument>>();
+	}
+
+	/**
+	 * Returns the document for uri from the registry, the same as
+	 * frontend.getSBOL(uri), fetching it only if it isn't cached. Null if the
+	 * registry doesn't have it.
+	 */
+	public SBOLDocument getSBOL(final SynBioHubFrontend frontend, final URI uri) throws SynBioHubException {
+		String key = frontend.getBackendUrl() + "|" + frontend.getUser() + "|" + uri;
+
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expires > System.currentTimeMillis()) {
+				hits.incrementAndGet();
+				return entry.document;
+			}
+			if (entry != null)
+				entries.remove(key);
+		}
+
+		FutureTask<SBOLDocument> task = new FutureTask<SBOLDocument>(new Callable<SBOLDocument>() {
+			@Override
+			public SBOLDocument call() throws SynBioHubException {
+				return frontend.getSBOL(uri);
+			}
+		});
+		FutureTask<SBOLDocument> running = inFlight.putIfAbsent(key, task);
+		if (running == null) {
+			misses.incrementAndGet();
+			running = task;
+			try {
+				task.run();
+				SBOLDocument document = task.get();
+				// a part missing now may still be uploaded later
+				put(key, document, document != null && isVersioned(uri));
+			} catch (Exception e) {
+				// rethrown below, failures aren't cached
+			} finally {
+				inFlight.remove(key, task);
+			}
+		} else {
+			// someone else is already fetching it
+			hits.incrementAndGet();
+		}
+
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SynBioHubException("Interrupted while fetching " + uri);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SynBioHubException)
+				throw (SynBioHubException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private void put(String key, SBOLDocument document, boolean versioned) {
+		long expires = versioned ? Long.MAX_VALUE : System.currentTimeMillis() + timeToLive;
+		synchronized (entries) {
+			entries.put(key, new Entry(document, expires));
+			Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+			while (entries.size() > maxEntries && eldest.hasNext()) {
+				eldest.next();
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * SynBioHub URIs end with the version, eg. .../BBa_B0034/1
+	 */
+	private static boolean isVersioned(URI uri) {
+		String path = uri.getPath();
+		if (path == null)
+			return false;
+		String lastSegment = path.substring(path.lastIndexOf('/') + 1);
+		return lastSegment.length() > 0 && Character.isDigit(lastSegment.charAt(0));
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "RemotePartCache[size=" + size() + ", hits=" + hits + ", misses=" + misses + ", evictions="
+				+ evictions + "]";
+	}
+
+	private static class Entry {
+		final SBOLDocument document;
+		final long expires;
+
+		Entry(SBOLDocument document, long expires) {
+			this.document = document;
+			this.expires = expires;
+		}
+	}
+
+}
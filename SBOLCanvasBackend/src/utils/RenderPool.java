@@ -0,0 +1,207 @@
+package utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs exports on their own threads within a memory budget. Each render
+ * reserves what its canvas will take before it starts and gives it back when
+ * it's done. A render that doesn't fit waits for others to finish, up to a
+ * timeout, and only a bounded number may wait at once. The rest are turned
+ * away with a BusyException so a burst of large exports can't run the server
+ * out of memory.
+ *
+ * A render bigger than the whole budget runs once nothing else is reserved.
+ */
+public class RenderPool {
+
+	private static final RenderPool instance = new RenderPool(Constants.EXPORT_THREADS,
+			Constants.EXPORT_MEMORY_BUDGET, Constants.EXPORT_QUEUE_TIMEOUT, Constants.EXPORT_MAX_QUEUED);
+
+	private final ExecutorService executor;
+	private final long budget;
+	private final long timeout;
+	private final int maxWaiting;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	private long available;
+	private int waiting;
+
+	private final AtomicLong rendered = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	public static RenderPool getInstance() {
+		return instance;
+	}
+
+	public RenderPool(int threads, long budget, long timeout, int maxWaiting) {
+		this.budget = budget;
+		this.available = budget;
+		this.timeout = timeout;
+		this.maxWaiting = maxWaiting;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "export-render-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Reserves bytes of the budget, runs task on the pool and waits for it. Errors
+	 * thrown by the task, out of memory included, are rethrown as they are.
+	 *
+	 * The reservation is given back by the task itself once it's done, so a task
+	 * still running after its caller gave up keeps its bytes until it stops.
+	 *
+	 * @throws BusyException if the bytes couldn't be reserved in time
+	 */
+	public <T> T render(long bytes, final Callable<T> task) throws Exception {
+		final long reserved = Math.min(Math.max(bytes, 0), budget);
+		reserve(reserved);
+		// whoever claims this releases the bytes, the task or a caller that cancels it first
+		final AtomicBoolean claimed = new AtomicBoolean();
+		Future<T> future;
+		try {
+			future = executor.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					if (!claimed.compareAndSet(false, true))
+						return null;
+					try {
+						return task.call();
+					} finally {
+						release(reserved);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			release(reserved);
+			throw e;
+		}
+		try {
+			T result = future.get();
+			rendered.incrementAndGet();
+			return result;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			if (claimed.compareAndSet(false, true))
+				release(reserved);
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	private void reserve(long bytes) throws BusyException, InterruptedException {
+		lock.lock();
+		try {
+			// don't jump ahead of renders that are already waiting
+			if (waiting == 0 && available >= bytes) {
+				available -= bytes;
+				return;
+			}
+			if (waiting >= maxWaiting) {
+				rejected.incrementAndGet();
+				throw new BusyException("Too many exports waiting.");
+			}
+			waiting++;
+			try {
+				long left = TimeUnit.MILLISECONDS.toNanos(timeout);
+				while (available < bytes) {
+					if (left <= 0) {
+						rejected.incrementAndGet();
+						throw new BusyException("Timed out waiting for " + bytes + " bytes of export memory.");
+					}
+					left = released.awaitNanos(left);
+				}
+				available -= bytes;
+			} finally {
+				waiting--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void release(long bytes) {
+		lock.lock();
+		try {
+			available += bytes;
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public long getReservedBytes() {
+		lock.lock();
+		try {
+			return budget - available;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getRendered() {
+		return rendered.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "RenderPool[reserved=" + getReservedBytes() + "/" + budget + ", waiting=" + getWaiting()
+				+ ", rendered=" + rendered + ", rejected=" + rejected + "]";
+	}
+
+	/**
+	 * The export couldn't be admitted, the client should try again later.
+	 */
+	public static class BusyException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public BusyException(String message) {
+			super(message);
+		}
+	}
+
+}
@@ -1,24 +1,23 @@
 package utils;
 
+import java.io.File;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.TreeSet;
 
 import org.sbolstandard.core2.ComponentDefinition;
 import org.sbolstandard.core2.Participation;
 import org.sbolstandard.core2.SequenceOntology;
 import org.sbolstandard.core2.SystemsBiologyOntology;
-import org.synbiohub.frontend.SynBioHubException;
-import org.synbiohub.frontend.SynBioHubFrontend;
-import org.synbiohub.frontend.WebOfRegistriesData;
 
 public class SBOLData {
 
-	private static SequenceOntology so;
 	private static SystemsBiologyOntology sbo;
+	private static OntologyTables ontologyTables;
 	
 	public static BiMap<String, URI> types;
 	public static BiMap<String, URI> roles;
@@ -28,13 +27,10 @@ public class SBOLData {
 	public static BiMap<String, URI> interactionRoles;
 	public static HashMap<URI, URI> interactionSourceRoles;
 	public static HashMap<URI, URI> interactionTargetRoles;
-	public static HashSet<String> registries;
+	private static HashSet<URI> sourceRoleTerms;
 	
 	
 	static {
-		so = new SequenceOntology();
-		sbo = new SystemsBiologyOntology();
-		
 		types = new BiMap<String, URI>();
 		types.put("Complex", ComponentDefinition.COMPLEX);
 		types.put("DNA molecule", ComponentDefinition.DNA_MOLECULE);
@@ -86,16 +82,6 @@ public class SBOLData {
 		roles.put("TSE (Transcription End Site)", URI.create("http://identifiers.org/so/SO:0000616"));
 		roles.put("TTS (Translation Termination Site)", URI.create("http://identifiers.org/so/SO:0000327"));
 		
-		refinements = new BiMap<String, URI>();
-		parents = new HashMap<URI, URI>();
-		for(URI uri : roles.values()) {
-			Set<URI> descendants = so.getDescendantURIsOf(uri);
-			for(URI dURI : descendants) {
-				refinements.put(so.getName(dURI), dURI);
-				parents.put(dURI, uri);
-			}
-		}
-		
 		interactions = new BiMap<String, URI>();
 		interactions.put("Inhibition", SystemsBiologyOntology.INHIBITION);
 		interactions.put("Stimulation", SystemsBiologyOntology.STIMULATION);
@@ -139,15 +125,48 @@ public class SBOLData {
 		interactionSourceRoles.put(SystemsBiologyOntology.DISSOCIATION, SystemsBiologyOntology.REACTANT);
 		interactionSourceRoles.put(SystemsBiologyOntology.PROCESS, SystemsBiologyOntology.REACTANT);
 		
-		registries = new HashSet<String>();
-		try {
-			for(WebOfRegistriesData registry : SynBioHubFrontend.getRegistries()) {
-				registries.add(registry.getInstanceUrl());
+		// the ontologies are only parsed if the cached tables are missing or stale
+		Set<URI> sboParents = new LinkedHashSet<URI>(interactionRoles.values());
+		sboParents.addAll(interactionSourceRoles.values());
+		sboParents.addAll(interactionTargetRoles.values());
+		ontologyTables = OntologyTables.load(getVocabularyCache(), roles.values(), sboParents);
+		refinements = new BiMap<String, URI>();
+		parents = new HashMap<URI, URI>();
+		for (OntologyTables.Term term : ontologyTables.getSOTerms()) {
+			if (term.uri != null) {
+				refinements.put(term.name, term.uri);
+				parents.put(term.uri, term.parent);
 			}
-		} catch (SynBioHubException e) {
-			e.printStackTrace();
 		}
 		
+		// every role that makes a participant a source, so classifying one doesn't
+		// walk the ontology
+		sourceRoleTerms = getRoleClosure(interactionSourceRoles.values());
+		
+		// fetched in the background, don't hold up the first request
+		RegistryList.getInstance().start();
+		
+	}
+
+	/**
+	 * Returns the registries in the Web of Registries, as of the last refresh.
+	 */
+	public static Set<String> getRegistries() {
+		return RegistryList.getInstance().getRegistries();
+	}
+
+	/**
+	 * Returns the matcher for the current registries.
+	 */
+	public static RegistryMatcher getRegistryMatcher() {
+		return RegistryList.getInstance().getMatcher();
+	}
+
+	/**
+	 * Returns when the registries were last fetched, 0 if they haven't been yet.
+	 */
+	public static long getRegistriesRefreshed() {
+		return RegistryList.getInstance().getLastRefresh();
 	}
 	
 	/**
@@ -179,17 +198,11 @@ public class SBOLData {
 		if(parentName == null || parentName.equals("")) {
 			parentName = "NGA (No Glyph Assigned)";
 		}
-		TreeSet<String> refinementNames = new TreeSet<String>();
-		if (roles.getValue(parentName) != null) {
-			Set<URI> descendants = so.getDescendantURIsOf(roles.getValue(parentName));
-
-			for(URI uri : descendants) {
-				refinementNames.add(so.getName(uri));
-			}
+		URI parentURI = roles.getValue(parentName);
+		if (parentURI == null) {
+			return new String[0];
 		}
-		
-		return refinementNames.toArray(new String[0]);	
-		
+		return ontologyTables.getSORefinement(parentURI);
 	}
 	
 	/**
@@ -205,12 +218,7 @@ public class SBOLData {
 		if(parentURI == null) {
 			return new String[0];
 		}
-		Set<String> refinementNames = new TreeSet<String>();
-		Set<URI> descendants = sbo.getDescendantURIsOf(parentURI);
-		for(URI uri : descendants) {
-			refinementNames.add(sbo.getName(uri));
-		}
-		return refinementNames.toArray(new String[0]);
+		return ontologyTables.getSBORefinement(parentURI);
 	}
 	
 	/**
@@ -237,23 +245,61 @@ public class SBOLData {
 	}
 	
 	public static URI getInteractionRoleRefinementFromName(String name) {
-		return sbo.getURIbyName(name);
+		URI refinement = ontologyTables.getSBOURI(name);
+		if (refinement != null)
+			return refinement;
+		// not one we offer, look it up in the whole ontology
+		return getSBO().getURIbyName(name);
 	}
 	
 	public static String getInteractionRoleRefinementName(URI refinement) {
-		return sbo.getName(refinement);
+		String name = ontologyTables.getSBOName(refinement);
+		if (name != null)
+			return name;
+		return getSBO().getName(refinement);
+	}
+	
+	/**
+	 * The configured vocabulary cache, or one in the webapp's temporary directory.
+	 * Null outside a container without one configured.
+	 */
+	private static File getVocabularyCache() {
+		if (Constants.VOCABULARY_CACHE != null)
+			return new File(Constants.VOCABULARY_CACHE);
+		if (Constants.CONTEXT_TEMP_DIR != null)
+			return new File(Constants.CONTEXT_TEMP_DIR, "vocabulary.txt");
+		return null;
+	}
+	
+	/**
+	 * The full ontology, only parsed when a term outside the tables is needed.
+	 */
+	private static synchronized SystemsBiologyOntology getSBO() {
+		if (sbo == null)
+			sbo = new SystemsBiologyOntology();
+		return sbo;
 	}
 	
 	public static boolean isSourceParticipant(Participation participant) {
-		for(URI sourceRole : interactionSourceRoles.values()) {
-			Set<URI> participantRoles = participant.getRoles();
-			for(URI partRole : participantRoles) {
-				if(partRole.equals(sourceRole) || sbo.isDescendantOf(partRole, sourceRole)) {
-					return true;
-				}				
+		return hasRoleIn(participant, sourceRoleTerms);
+	}
+	
+	private static boolean hasRoleIn(Participation participant, Set<URI> roleTerms) {
+		for (URI partRole : participant.getRoles()) {
+			if (roleTerms.contains(partRole)) {
+				return true;
 			}
 		}
 		return false;
 	}
+	
+	private static HashSet<URI> getRoleClosure(Collection<URI> roles) {
+		HashSet<URI> closure = new HashSet<URI>();
+		for (URI role : roles) {
+			closure.add(role);
+			closure.addAll(ontologyTables.getSBODescendants(role));
+		}
+		return closure;
+	}
 
 }
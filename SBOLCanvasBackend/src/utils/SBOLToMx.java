@@ -3,7 +3,6 @@ package utils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -16,13 +15,8 @@ import java.util.Set;
 import java.util.Stack;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.sbolstandard.core2.Annotation;
 import org.sbolstandard.core2.Collection;
@@ -48,10 +42,8 @@ import org.sbolstandard.core2.Sequence;
 import org.sbolstandard.core2.SequenceAnnotation;
 import org.sbolstandard.core2.StrategyType;
 import org.sbolstandard.core2.VariableComponent;
-import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
-import com.mxgraph.io.mxCodec;
 import com.mxgraph.model.mxCell;
 import com.mxgraph.model.mxGraphModel;
 import com.mxgraph.util.mxConstants;
@@ -65,6 +57,7 @@ import data.IdentifiedInfo;
 import data.InteractionInfo;
 import data.ModuleInfo;
 import data.VariableComponentInfo;
+import utils.StyleClassifier.Kind;
 
 public class SBOLToMx extends Converter {
 
@@ -110,7 +103,7 @@ public class SBOLToMx extends Converter {
 		dataContainer.add(INTERACTION_DICT_INDEX, interactionDict);
 		cell0.setValue(dataContainer);
 
-		layoutHelper = new LayoutHelper(document, graph);
+		layoutHelper = new LayoutHelper(document, styleClassifier);
 
 		ModuleDefinition rootModDef = null;
 		if (document.getRootModuleDefinitions().size() > 0) {
@@ -152,7 +145,7 @@ public class SBOLToMx extends Converter {
 		}
 
 		// convert the objects to the graph xml
-		graphStream.write(encodeMxGraphObject(model).getBytes());
+		new GraphWriter(graphStream).write(model);
 	}
 
 	private Set<ComponentDefinition> createModuleView(SBOLDocument document, mxGraph graph, ModuleDefinition modDef)
@@ -172,13 +165,10 @@ public class SBOLToMx extends Converter {
 				STYLE_MODULE_VIEW);
 
 		// text boxes
-		mxCell[] textBoxes = layoutHelper.getGraphicalObjects(modDef.getIdentity(), "textBox");
+		mxCell[] textBoxes = layoutHelper.getGraphicalObjects(modDef.getIdentity(), "textBox",
+				new StyleBuilder(STYLE_TEXTBOX));
 		if (textBoxes != null) {
 			for (mxCell textBox : textBoxes) {
-				if (textBox.getStyle() != null)
-					textBox.setStyle(STYLE_TEXTBOX + ";" + textBox.getStyle());
-				else
-					textBox.setStyle(STYLE_TEXTBOX);
 				model.add(rootViewCell, textBox, 0);
 			}
 		}
@@ -218,12 +208,9 @@ public class SBOLToMx extends Converter {
 			if (!compDef.getTypes().contains(ComponentDefinition.DNA_REGION)) {
 				// proteins don't have a mapping, but we need it for interactions
 
-				mxCell protien = layoutHelper.getGraphicalObject(modDef.getIdentity(), funcComp.getDisplayId());
+				mxCell protien = layoutHelper.getGraphicalObject(modDef.getIdentity(), funcComp.getDisplayId(),
+						new StyleBuilder(STYLE_MOLECULAR_SPECIES));
 				if (protien != null) {
-					if (protien.getStyle() != null)
-						protien.setStyle(STYLE_MOLECULAR_SPECIES + ";" + protien.getStyle());
-					else
-						protien.setStyle(STYLE_MOLECULAR_SPECIES);
 					protien.setValue(compDef.getIdentity().toString());
 					model.add(rootViewCell, protien, 0);
 				} else {
@@ -238,12 +225,9 @@ public class SBOLToMx extends Converter {
 			}
 
 			// add the container cell and backbone
-			mxCell container = layoutHelper.getGraphicalObject(modDef.getIdentity(), funcComp.getDisplayId());
+			mxCell container = layoutHelper.getGraphicalObject(modDef.getIdentity(), funcComp.getDisplayId(),
+					new StyleBuilder(STYLE_CIRCUIT_CONTAINER));
 			if (container != null) {
-				if (container.getStyle() != null)
-					container.setStyle(STYLE_CIRCUIT_CONTAINER + ";" + container.getStyle());
-				else
-					container.setStyle(STYLE_CIRCUIT_CONTAINER);
 				container.setValue(compDef.getIdentity().toString());
 				model.add(rootViewCell, container, 0);
 			} else {
@@ -251,12 +235,9 @@ public class SBOLToMx extends Converter {
 						0, STYLE_CIRCUIT_CONTAINER);
 			}
 			compToCell.put(funcComp, container);
-			mxCell backbone = layoutHelper.getGraphicalObject(compDef.getIdentity(), compDef.getDisplayId());
+			mxCell backbone = layoutHelper.getGraphicalObject(compDef.getIdentity(), compDef.getDisplayId(),
+					new StyleBuilder(STYLE_BACKBONE));
 			if (backbone != null) {
-				if (backbone.getStyle() != null)
-					backbone.setStyle(STYLE_BACKBONE + ";" + backbone.getStyle());
-				else
-					backbone.setStyle(STYLE_BACKBONE);
 				model.add(container, backbone, 0);
 			} else {
 				backbone = (mxCell) graph.insertVertex(container, null, null, 0, 0, 0, 0, STYLE_BACKBONE);
@@ -281,29 +262,17 @@ public class SBOLToMx extends Converter {
 			double maxX = 0;
 			for (int glyphIndex = 0; glyphIndex < glyphArray.length; glyphIndex++) {
 				Component glyphComponent = glyphArray[glyphIndex];
+				StyleBuilder glyphStyle = getGlyphStyle(compDef, glyphComponent);
 
 				mxCell glyphCell = layoutHelper.getGraphicalObject(compDef.getIdentity(),
-						glyphComponent.getDisplayId());
+						glyphComponent.getDisplayId(), glyphStyle);
 				if (glyphCell != null) {
 					glyphCell.setValue(glyphComponent.getDefinition().getIdentity().toString());
-					if (glyphCell.getStyle() != null)
-						glyphCell.setStyle(STYLE_SEQUENCE_FEATURE + ";" + glyphCell.getStyle());
-					else
-						glyphCell.setStyle(STYLE_SEQUENCE_FEATURE);
 					model.add(container, glyphCell, glyphIndex);
 				} else {
 					glyphCell = (mxCell) graph.insertVertex(container, null,
 							glyphComponent.getDefinition().getIdentity().toString(), maxX++, 0, 0, 0,
-							STYLE_SEQUENCE_FEATURE);
-				}
-
-				// style filp
-				SequenceAnnotation seqAnn = compDef.getSequenceAnnotation(glyphComponent);
-				if (seqAnn != null) {
-					Location loc = seqAnn.getLocations().iterator().next();
-					if (loc.getOrientation() == OrientationType.REVERSECOMPLEMENT) {
-						graph.setCellStyles(mxConstants.STYLE_DIRECTION, "west", new Object[] { glyphCell });
-					}
+							glyphStyle.build());
 				}
 
 				// store the cell so we can use it in interactions
@@ -318,13 +287,10 @@ public class SBOLToMx extends Converter {
 
 		// create modules
 		for (Module module : modDef.getModules()) {
-			mxCell moduleCell = layoutHelper.getGraphicalObject(modDef.getIdentity(), module.getDisplayId());
+			mxCell moduleCell = layoutHelper.getGraphicalObject(modDef.getIdentity(), module.getDisplayId(),
+					new StyleBuilder(STYLE_MODULE));
 			if (moduleCell != null) {
 				moduleCell.setValue(module.getDefinition().getIdentity().toString());
-				if (moduleCell.getStyle() != null)
-					moduleCell.setStyle(STYLE_MODULE + ";" + moduleCell.getStyle());
-				else
-					moduleCell.setStyle(STYLE_MODULE);
 				model.add(rootViewCell, moduleCell, 0);
 			} else {
 				moduleCell = (mxCell) graph.insertVertex(rootViewCell, null,
@@ -355,24 +321,18 @@ public class SBOLToMx extends Converter {
 				STYLE_COMPONENT_VIEW);
 
 		// if there are text boxes add them
-		mxCell[] textBoxes = layoutHelper.getGraphicalObjects(compDef.getIdentity(), "textBox");
+		mxCell[] textBoxes = layoutHelper.getGraphicalObjects(compDef.getIdentity(), "textBox",
+				new StyleBuilder(STYLE_TEXTBOX));
 		if (textBoxes != null) {
 			for (mxCell textBox : textBoxes) {
-				if (textBox.getStyle() != null)
-					textBox.setStyle(STYLE_TEXTBOX + ";" + textBox.getStyle());
-				else
-					textBox.setStyle(STYLE_TEXTBOX);
 				model.add(viewCell, textBox, 0);
 			}
 		}
 
 		// add the container cell and backbone
-		mxCell container = layoutHelper.getGraphicalObject(compDef.getIdentity(), "container");
+		mxCell container = layoutHelper.getGraphicalObject(compDef.getIdentity(), "container",
+				new StyleBuilder(STYLE_CIRCUIT_CONTAINER));
 		if (container != null) {
-			if (container.getStyle() != null)
-				container.setStyle(STYLE_CIRCUIT_CONTAINER + ";" + container.getStyle());
-			else
-				container.setStyle(STYLE_CIRCUIT_CONTAINER);
 			container.setValue(compDef.getIdentity().toString());
 			model.add(viewCell, container, 0);
 		} else {
@@ -380,12 +340,9 @@ public class SBOLToMx extends Converter {
 					STYLE_CIRCUIT_CONTAINER);
 		}
 
-		mxCell backbone = layoutHelper.getGraphicalObject(compDef.getIdentity(), "backbone");
+		mxCell backbone = layoutHelper.getGraphicalObject(compDef.getIdentity(), "backbone",
+				new StyleBuilder(STYLE_BACKBONE));
 		if (backbone != null) {
-			if (backbone.getStyle() != null)
-				backbone.setStyle(STYLE_BACKBONE + ";" + backbone.getStyle());
-			else
-				backbone.setStyle(STYLE_BACKBONE);
 			model.add(container, backbone, 0);
 		} else {
 			backbone = (mxCell) graph.insertVertex(container, null, null, 0, 0, 0, 0, STYLE_BACKBONE);
@@ -408,31 +365,19 @@ public class SBOLToMx extends Converter {
 
 		for (int glyphIndex = 0; glyphIndex < glyphArray.length; glyphIndex++) {
 			Component glyphComponent = glyphArray[glyphIndex];
-			mxCell glyphCell = layoutHelper.getGraphicalObject(compDef.getIdentity(), glyphComponent.getDisplayId());
+			StyleBuilder glyphStyle = getGlyphStyle(compDef, glyphComponent);
+			mxCell glyphCell = layoutHelper.getGraphicalObject(compDef.getIdentity(), glyphComponent.getDisplayId(),
+					glyphStyle);
 			double maxX = 0;
 			if (glyphCell != null) {
 				maxX = glyphCell.getGeometry().getX();
-				if (glyphCell.getStyle() != null)
-					glyphCell.setStyle(STYLE_SEQUENCE_FEATURE + ";" + glyphCell.getStyle());
-				else
-					glyphCell.setStyle(STYLE_SEQUENCE_FEATURE);
 				glyphCell.setValue(glyphComponent.getDefinition().getIdentity().toString());
 				model.add(container, glyphCell, glyphIndex);
 			} else {
 				glyphCell = (mxCell) graph.insertVertex(container, null,
 						glyphComponent.getDefinition().getIdentity().toString(), maxX++, 0, 0, 0,
-						STYLE_SEQUENCE_FEATURE);
-			}
-
-			// style flip
-			SequenceAnnotation seqAnn = compDef.getSequenceAnnotation(glyphComponent);
-			if (seqAnn != null) {
-				Location loc = seqAnn.getLocations().iterator().next();
-				if (loc.getOrientation() == OrientationType.REVERSECOMPLEMENT) {
-					graph.setCellStyles(mxConstants.STYLE_DIRECTION, "west", new Object[] { glyphCell });
-				}
+						glyphStyle.build());
 			}
-
 		}
 	}
 
@@ -445,17 +390,9 @@ public class SBOLToMx extends Converter {
 		for (Interaction interaction : interactions) {
 			Participation[] participations = interaction.getParticipations().toArray(new Participation[0]);
 			boolean hasNode = participations.length > 2;
-			mxCell interactionCell = layoutHelper.getGraphicalObject(modDef.getIdentity(), interaction.getDisplayId());
+			mxCell interactionCell = layoutHelper.getGraphicalObject(modDef.getIdentity(), interaction.getDisplayId(),
+					new StyleBuilder(hasNode ? STYLE_INTERACTION_NODE : STYLE_INTERACTION));
 			if (interactionCell != null) {
-				if (interactionCell.getStyle() != null)
-					if (hasNode)
-						interactionCell.setStyle(STYLE_INTERACTION_NODE + ";" + interactionCell.getStyle());
-					else
-						interactionCell.setStyle(STYLE_INTERACTION + ";" + interactionCell.getStyle());
-				else if (hasNode)
-					interactionCell.setStyle(STYLE_INTERACTION_NODE);
-				else
-					interactionCell.setStyle(STYLE_INTERACTION);
 				interactionCell = (mxCell) model.add(rootViewCell, interactionCell, 0);
 			} else {
 				if (hasNode)
@@ -472,12 +409,9 @@ public class SBOLToMx extends Converter {
 				boolean source = SBOLData.isSourceParticipant(participation);
 				// pull the interaction edge from the participation if connected to an interaction node or create a new one
 				if(hasNode) {
-					mxCell interactionEdge = layoutHelper.getGraphicalObject(modDef.getIdentity(), participation.getDisplayId());
+					mxCell interactionEdge = layoutHelper.getGraphicalObject(modDef.getIdentity(),
+							participation.getDisplayId(), new StyleBuilder(STYLE_INTERACTION));
 					if (interactionEdge != null) {
-						if (interactionEdge.getStyle() != null)
-							interactionEdge.setStyle(STYLE_INTERACTION + ";" + interactionEdge.getStyle());
-						else
-							interactionEdge.setStyle(STYLE_INTERACTION);
 						interactionEdge = (mxCell) model.add(rootViewCell, interactionEdge, 0);
 					} else {
 						interactionEdge = (mxCell) graph.insertEdge(rootViewCell, null, null, null, null);
@@ -518,7 +452,7 @@ public class SBOLToMx extends Converter {
 				intInfo.getTargetRefinement().put(interactionEdge.getId(), SBOLData.getInteractionRoleRefinementName(partRefinement));
 		}
 		// set the to/fromURI if needed
-		if (endpoint.getStyle().contains(STYLE_MODULE)) {
+		if (styleClassifier.is(endpoint, Kind.MODULE)) {
 			mxCell referenced = compToCell.get(mappings.get(participation.getParticipant()));
 			if(source)
 				intInfo.getFromURI().put(interactionEdge.getId(), referenced.getValue()+"_"+referenced.getId());
@@ -527,6 +461,22 @@ public class SBOLToMx extends Converter {
 		}
 	}
 
+	/**
+	 * Returns the style of a sequence feature glyph, flipped if the component is
+	 * annotated as reverse complement.
+	 */
+	private static StyleBuilder getGlyphStyle(ComponentDefinition compDef, Component glyphComponent) {
+		StyleBuilder glyphStyle = new StyleBuilder(STYLE_SEQUENCE_FEATURE);
+		SequenceAnnotation seqAnn = compDef.getSequenceAnnotation(glyphComponent);
+		if (seqAnn != null) {
+			Location loc = seqAnn.getLocations().iterator().next();
+			if (loc.getOrientation() == OrientationType.REVERSECOMPLEMENT) {
+				glyphStyle.set(mxConstants.STYLE_DIRECTION, "west");
+			}
+		}
+		return glyphStyle;
+	}
+
 	private ModuleInfo genModuleInfo(ModuleDefinition modDef) {
 		ModuleInfo moduleInfo = new ModuleInfo();
 		moduleInfo.setDescription(modDef.getDescription());
@@ -718,12 +668,11 @@ public class SBOLToMx extends Converter {
 				continue;
 			compDefs.add(compDef);
 			for (Component comp : compDef.getComponents()) {
-				for (String registry : SBOLData.registries) {
-					if (comp.getDefinitionURI().toString().contains(registry)) {
+				String registry = SBOLData.getRegistryMatcher().match(comp.getDefinitionURI());
+				if (registry != null) {
+					if (document.getRegistry(registry) == null)
 						document.addRegistry(registry);
-						compDefStack.push(document.getComponentDefinition(comp.getDefinitionURI()));
-						break;
-					}
+					compDefStack.push(document.getComponentDefinition(comp.getDefinitionURI()));
 				}
 			}
 		}
@@ -748,17 +697,6 @@ public class SBOLToMx extends Converter {
 		return canvasAnnotations.toArray(new CanvasAnnotation[0]);
 	}
 
-	private String encodeMxGraphObject(Object obj) throws TransformerFactoryConfigurationError, TransformerException {
-		mxCodec codec = new mxCodec();
-		Node cellNode = codec.encode(obj);
-		StringWriter sw = new StringWriter();
-		Transformer t = TransformerFactory.newInstance().newTransformer();
-		t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-		t.setOutputProperty(OutputKeys.INDENT, "no");
-		t.transform(new DOMSource(cellNode), new StreamResult(sw));
-		return sw.toString();
-	}
-
 	private String getURIPrefix(Identified identified) {
 		int lastIndex = 0;
 		String identity = identified.getIdentity().toString();
@@ -0,0 +1,166 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG a few rows at a time, so an image can be rendered and sent in
+ * strips without ever holding all of it. Rows are 8 bit RGB, or RGBA for
+ * transparent images, with the up filter. Compressed data is sent as an IDAT
+ * chunk whenever the buffer fills and at the end of every strip.
+ */
+public class StripPngWriter {
+
+	private static final byte[] SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final byte FILTER_UP = 2;
+
+	private final int width;
+	private final int height;
+	private final boolean alpha;
+	private final int bytesPerPixel;
+	private final DataOutputStream out;
+	private final Deflater deflater;
+	private final DeflaterOutputStream idat;
+
+	private final int[] pixels;
+	private byte[] row;
+	private byte[] previous;
+	private int rowsWritten;
+
+	public StripPngWriter(OutputStream out, int width, int height, boolean alpha) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.alpha = alpha;
+		this.bytesPerPixel = alpha ? 4 : 3;
+		this.out = new DataOutputStream(out);
+		this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		// sync flush lets each strip go out as soon as it's encoded
+		this.idat = new DeflaterOutputStream(new IdatOutputStream(), deflater, CHUNK_SIZE, true);
+		this.pixels = new int[width];
+		this.row = new byte[width * bytesPerPixel];
+		this.previous = new byte[width * bytesPerPixel];
+
+		this.out.write(SIGNATURE);
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerData = new DataOutputStream(header);
+		headerData.writeInt(width);
+		headerData.writeInt(height);
+		headerData.writeByte(8);
+		headerData.writeByte(alpha ? 6 : 2);
+		// deflate, adaptive filtering, not interlaced
+		headerData.writeByte(0);
+		headerData.writeByte(0);
+		headerData.writeByte(0);
+		writeChunk("IHDR", header.toByteArray(), header.size());
+	}
+
+	/**
+	 * Encodes the first rows rows of strip, which must be the image's width, and
+	 * sends them on.
+	 */
+	public void writeStrip(BufferedImage strip, int rows) throws IOException {
+		if (strip.getWidth() != width)
+			throw new IllegalArgumentException("Strip is " + strip.getWidth() + " wide, expected " + width + ".");
+		if (rowsWritten + rows > height)
+			throw new IllegalArgumentException("Image only has " + height + " rows.");
+		for (int y = 0; y < rows; y++) {
+			strip.getRGB(0, y, width, 1, pixels, 0, width);
+			for (int x = 0, i = 0; x < width; x++) {
+				int argb = pixels[x];
+				row[i++] = (byte) (argb >> 16);
+				row[i++] = (byte) (argb >> 8);
+				row[i++] = (byte) argb;
+				if (alpha)
+					row[i++] = (byte) (argb >>> 24);
+			}
+			idat.write(FILTER_UP);
+			for (int i = 0; i < row.length; i++) {
+				previous[i] = (byte) (row[i] - previous[i]);
+			}
+			idat.write(previous);
+			// keep the unfiltered row for the next one
+			byte[] swap = previous;
+			previous = row;
+			row = swap;
+		}
+		rowsWritten += rows;
+		idat.flush();
+		out.flush();
+	}
+
+	/**
+	 * Ends the image. Every row must have been written.
+	 */
+	public void finish() throws IOException {
+		if (rowsWritten != height)
+			throw new IllegalStateException("Wrote " + rowsWritten + " of " + height + " rows.");
+		idat.close();
+		deflater.end();
+		writeChunk("IEND", new byte[0], 0);
+		out.flush();
+	}
+
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Collects compressed bytes into IDAT chunks.
+	 */
+	private class IdatOutputStream extends OutputStream {
+		private final byte[] buffer = new byte[CHUNK_SIZE];
+		private int count;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length)
+				flushChunk();
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == buffer.length)
+					flushChunk();
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushChunk();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flushChunk();
+		}
+
+		private void flushChunk() throws IOException {
+			if (count > 0)
+				writeChunk("IDAT", buffer, count);
+			count = 0;
+		}
+	}
+
+}
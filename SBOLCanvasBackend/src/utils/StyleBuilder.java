@@ -0,0 +1,74 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the named styles and key/value pairs of a cell and writes the style
+ * string once. The output matches what successive mxGraph.setCellStyles calls
+ * on the same cell would produce, without parsing the string again or firing
+ * model events for every attribute.
+ */
+public class StyleBuilder {
+
+	private List<String> names;
+	private LinkedHashMap<String, String> values;
+
+	public StyleBuilder(String... names) {
+		this.names = new ArrayList<String>(names.length);
+		for (String name : names) {
+			if (name != null && name.length() > 0)
+				this.names.add(name);
+		}
+		this.values = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Sets key to value. Empty values are ignored, the same as
+	 * mxStyleUtils.setStyle does for a key that isn't present yet.
+	 */
+	public StyleBuilder set(String key, String value) {
+		if (value != null && value.length() > 0) {
+			values.put(key, value);
+		}
+		return this;
+	}
+
+	/**
+	 * Returns a new builder with the same named styles, followed by the given
+	 * key/value pairs and then the key/value pairs of this builder.
+	 */
+	public StyleBuilder derive(List<String[]> leadingValues) {
+		StyleBuilder derived = new StyleBuilder(names.toArray(new String[0]));
+		for (String[] value : leadingValues) {
+			derived.set(value[0], value[1]);
+		}
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			derived.set(value.getKey(), value.getValue());
+		}
+		return derived;
+	}
+
+	/**
+	 * Returns the style string, or null if nothing was set.
+	 */
+	public String build() {
+		if (names.isEmpty() && values.isEmpty())
+			return null;
+		StringBuilder style = new StringBuilder();
+		for (String name : names) {
+			if (style.length() > 0)
+				style.append(';');
+			style.append(name);
+		}
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			if (style.length() > 0)
+				style.append(';');
+			style.append(value.getKey()).append('=').append(value.getValue());
+		}
+		return style.toString();
+	}
+
+}
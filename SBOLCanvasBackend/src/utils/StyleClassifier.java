@@ -0,0 +1,113 @@
+package utils;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import com.mxgraph.model.mxCell;
+
+/**
+ * Parses cell style strings once per conversion into a set of glyph kinds and a
+ * key/value map. Kinds are matched against the named style tokens only, so a
+ * style value that happens to contain eg. "backbone" isn't misclassified.
+ */
+public class StyleClassifier {
+
+	public enum Kind {
+		CIRCUIT_CONTAINER, BACKBONE, TEXTBOX, MODULE, MOLECULAR_SPECIES, SEQUENCE_FEATURE, CIRCULAR_BACKBONE_LEFT,
+		INTERACTION, INTERACTION_NODE, MODULE_VIEW, COMPONENT_VIEW
+	}
+
+	private static final String CIRCULAR_BACKBONE_LEFT = "Cir (Circular Backbone Left)";
+
+	private IdentityHashMap<mxCell, ParsedStyle> cache;
+
+	public StyleClassifier() {
+		cache = new IdentityHashMap<mxCell, ParsedStyle>();
+	}
+
+	/**
+	 * Returns the parsed style of the cell. The cached entry is reused as long as
+	 * the cell still holds the same style string.
+	 */
+	public ParsedStyle get(mxCell cell) {
+		String style = cell.getStyle();
+		ParsedStyle parsed = cache.get(cell);
+		if (parsed == null || parsed.source != style) {
+			parsed = parse(style);
+			cache.put(cell, parsed);
+		}
+		return parsed;
+	}
+
+	public boolean is(Object cell, Kind kind) {
+		return cell instanceof mxCell && get((mxCell) cell).kinds.contains(kind);
+	}
+
+	/**
+	 * Returns the value of key in the cell's own style string, or null if it isn't
+	 * set.
+	 */
+	public String getValue(mxCell cell, String key) {
+		return get(cell).values.get(key);
+	}
+
+	private static ParsedStyle parse(String style) {
+		ParsedStyle parsed = new ParsedStyle(style);
+		if (style == null)
+			return parsed;
+
+		for (String token : style.split(";")) {
+			int equals = token.indexOf('=');
+			if (equals >= 0) {
+				parsed.values.put(token.substring(0, equals), token.substring(equals + 1));
+				continue;
+			}
+			if (token.startsWith(Converter.STYLE_CIRCUIT_CONTAINER)) {
+				parsed.kinds.add(Kind.CIRCUIT_CONTAINER);
+			} else if (token.startsWith(Converter.STYLE_BACKBONE)) {
+				parsed.kinds.add(Kind.BACKBONE);
+			} else if (token.startsWith(Converter.STYLE_TEXTBOX)) {
+				parsed.kinds.add(Kind.TEXTBOX);
+			} else if (token.startsWith(Converter.STYLE_MODULE)) {
+				parsed.kinds.add(Kind.MODULE);
+			} else if (token.startsWith(Converter.STYLE_MOLECULAR_SPECIES)) {
+				parsed.kinds.add(Kind.MOLECULAR_SPECIES);
+			} else if (token.startsWith(Converter.STYLE_SEQUENCE_FEATURE)) {
+				parsed.kinds.add(Kind.SEQUENCE_FEATURE);
+				if (token.endsWith(CIRCULAR_BACKBONE_LEFT))
+					parsed.kinds.add(Kind.CIRCULAR_BACKBONE_LEFT);
+			} else if (token.startsWith(Converter.STYLE_INTERACTION_NODE)) {
+				parsed.kinds.add(Kind.INTERACTION_NODE);
+			} else if (token.startsWith(Converter.STYLE_INTERACTION)) {
+				parsed.kinds.add(Kind.INTERACTION);
+			} else if (token.equals(Converter.STYLE_MODULE_VIEW)) {
+				parsed.kinds.add(Kind.MODULE_VIEW);
+			} else if (token.equals(Converter.STYLE_COMPONENT_VIEW)) {
+				parsed.kinds.add(Kind.COMPONENT_VIEW);
+			}
+		}
+		return parsed;
+	}
+
+	public static class ParsedStyle {
+		private final String source;
+		private final EnumSet<Kind> kinds;
+		private final HashMap<String, String> values;
+
+		private ParsedStyle(String source) {
+			this.source = source;
+			this.kinds = EnumSet.noneOf(Kind.class);
+			this.values = new HashMap<String, String>();
+		}
+
+		public boolean is(Kind kind) {
+			return kinds.contains(kind);
+		}
+
+		public String getValue(String key) {
+			return values.get(key);
+		}
+	}
+
+}
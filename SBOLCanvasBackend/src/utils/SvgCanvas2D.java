@@ -0,0 +1,612 @@
+package utils;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.mxgraph.canvas.mxICanvas2D;
+import com.mxgraph.util.mxConstants;
+
+/**
+ * Canvas that writes SVG elements as they're drawn, for the output of
+ * mxSaxOutputHandler. Nothing is rasterized and nothing but the current path
+ * is held, so the output grows with the number of shapes, not the pixel area.
+ *
+ * Follows what mxGraph's client side SVG canvas does, with a few things left
+ * out: HTML labels are written as plain text, label backgrounds, borders and
+ * clipping are ignored, and wrapping uses the server's font metrics.
+ */
+public class SvgCanvas2D implements mxICanvas2D {
+
+	private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, true, true);
+
+	private final Writer out;
+	private final Deque<State> states = new ArrayDeque<State>();
+	private State state = new State();
+
+	private String shape;
+	private StringBuilder path;
+	private int gradients;
+
+	/**
+	 * IOExceptions from the writer are thrown as IllegalStateException, since the
+	 * canvas interface can't throw them.
+	 */
+	public SvgCanvas2D(Writer out) {
+		this.out = out;
+	}
+
+	@Override
+	public void save() {
+		states.push(state);
+		state = state.copy();
+	}
+
+	@Override
+	public void restore() {
+		if (!states.isEmpty())
+			state = states.pop();
+	}
+
+	@Override
+	public void scale(double value) {
+		state.scale *= value;
+		state.strokeWidth *= value;
+	}
+
+	@Override
+	public void translate(double dx, double dy) {
+		state.dx += dx;
+		state.dy += dy;
+	}
+
+	@Override
+	public void rotate(double theta, boolean flipH, boolean flipV, double cx, double cy) {
+		cx = (cx + state.dx) * state.scale;
+		cy = (cy + state.dy) * state.scale;
+		if (flipH || flipV) {
+			state.transform.append("translate(").append(format(cx)).append(',').append(format(cy)).append(")scale(")
+					.append(flipH ? -1 : 1).append(',').append(flipV ? -1 : 1).append(")translate(")
+					.append(format(-cx)).append(',').append(format(-cy)).append(')');
+		}
+		if (flipH != flipV)
+			theta = -theta;
+		if (theta != 0) {
+			state.transform.append("rotate(").append(format(theta)).append(',').append(format(cx)).append(',')
+					.append(format(cy)).append(')');
+		}
+	}
+
+	@Override
+	public void setStrokeWidth(double value) {
+		state.strokeWidth = value * state.scale;
+	}
+
+	@Override
+	public void setStrokeColor(String value) {
+		state.strokeColor = value;
+	}
+
+	@Override
+	public void setDashed(boolean value) {
+		state.dashed = value;
+	}
+
+	@Override
+	public void setDashed(boolean value, boolean fixDash) {
+		state.dashed = value;
+		state.fixDash = fixDash;
+	}
+
+	@Override
+	public void setDashPattern(String value) {
+		state.dashPattern = value;
+	}
+
+	@Override
+	public void setLineCap(String value) {
+		state.lineCap = value;
+	}
+
+	@Override
+	public void setLineJoin(String value) {
+		state.lineJoin = value;
+	}
+
+	@Override
+	public void setMiterLimit(double value) {
+		state.miterLimit = value;
+	}
+
+	@Override
+	public void setFontSize(double value) {
+		state.fontSize = value;
+	}
+
+	@Override
+	public void setFontColor(String value) {
+		state.fontColor = value;
+	}
+
+	@Override
+	public void setFontFamily(String value) {
+		state.fontFamily = value;
+	}
+
+	@Override
+	public void setFontStyle(int value) {
+		state.fontStyle = value;
+	}
+
+	@Override
+	public void setFontBackgroundColor(String value) {
+		// not drawn
+	}
+
+	@Override
+	public void setFontBorderColor(String value) {
+		// not drawn
+	}
+
+	@Override
+	public void setAlpha(double value) {
+		state.alpha = value;
+	}
+
+	@Override
+	public void setFillAlpha(double value) {
+		state.fillAlpha = value;
+	}
+
+	@Override
+	public void setStrokeAlpha(double value) {
+		state.strokeAlpha = value;
+	}
+
+	@Override
+	public void setFillColor(String value) {
+		state.fillColor = value;
+		state.gradient = null;
+	}
+
+	@Override
+	public void setGradient(String color1, String color2, double x, double y, double w, double h,
+			String direction, double alpha1, double alpha2) {
+		String id = "mxGradient" + (gradients++);
+		String x1 = "0%", y1 = "0%", x2 = "0%", y2 = "0%";
+		if (mxConstants.DIRECTION_NORTH.equals(direction)) {
+			y1 = "100%";
+		} else if (mxConstants.DIRECTION_EAST.equals(direction)) {
+			x2 = "100%";
+		} else if (mxConstants.DIRECTION_WEST.equals(direction)) {
+			x1 = "100%";
+		} else {
+			y2 = "100%";
+		}
+		write("<defs><linearGradient id=\"" + id + "\" x1=\"" + x1 + "\" y1=\"" + y1 + "\" x2=\"" + x2 + "\" y2=\""
+				+ y2 + "\"><stop offset=\"0%\" stop-color=\"" + escape(color1) + "\" stop-opacity=\"" + format(alpha1)
+				+ "\"/><stop offset=\"100%\" stop-color=\"" + escape(color2) + "\" stop-opacity=\"" + format(alpha2)
+				+ "\"/></linearGradient></defs>\n");
+		state.fillColor = null;
+		state.gradient = id;
+	}
+
+	@Override
+	public void setShadow(boolean enabled) {
+		state.shadow = enabled;
+	}
+
+	@Override
+	public void setShadowColor(String value) {
+		state.shadowColor = value;
+	}
+
+	@Override
+	public void setShadowAlpha(double value) {
+		state.shadowAlpha = value;
+	}
+
+	@Override
+	public void setShadowOffset(double dx, double dy) {
+		state.shadowDx = dx;
+		state.shadowDy = dy;
+	}
+
+	@Override
+	public void rect(double x, double y, double w, double h) {
+		shape = "<rect x=\"" + format(tx(x)) + "\" y=\"" + format(ty(y)) + "\" width=\"" + format(w * state.scale)
+				+ "\" height=\"" + format(h * state.scale) + "\"";
+		path = null;
+	}
+
+	@Override
+	public void roundrect(double x, double y, double w, double h, double dx, double dy) {
+		rect(x, y, w, h);
+		shape += " rx=\"" + format(dx * state.scale) + "\" ry=\"" + format(dy * state.scale) + "\"";
+	}
+
+	@Override
+	public void ellipse(double x, double y, double w, double h) {
+		shape = "<ellipse cx=\"" + format(tx(x + w / 2)) + "\" cy=\"" + format(ty(y + h / 2)) + "\" rx=\""
+				+ format(w * state.scale / 2) + "\" ry=\"" + format(h * state.scale / 2) + "\"";
+		path = null;
+	}
+
+	@Override
+	public void image(double x, double y, double w, double h, String src, boolean aspect, boolean flipH,
+			boolean flipV) {
+		x = tx(x);
+		y = ty(y);
+		w *= state.scale;
+		h *= state.scale;
+		StringBuilder element = new StringBuilder("<image x=\"" + format(x) + "\" y=\"" + format(y) + "\" width=\""
+				+ format(w) + "\" height=\"" + format(h) + "\" xlink:href=\"" + escape(src)
+				+ "\" preserveAspectRatio=\"" + (aspect ? "xMidYMid meet" : "none") + "\"");
+		if (state.alpha < 1)
+			element.append(" opacity=\"" + format(state.alpha) + "\"");
+		StringBuilder transform = new StringBuilder(state.transform);
+		if (flipH || flipV) {
+			double cx = x + w / 2;
+			double cy = y + h / 2;
+			transform.append("translate(" + format(cx) + "," + format(cy) + ")scale(" + (flipH ? -1 : 1) + ","
+					+ (flipV ? -1 : 1) + ")translate(" + format(-cx) + "," + format(-cy) + ")");
+		}
+		if (transform.length() > 0)
+			element.append(" transform=\"" + transform + "\"");
+		write(element + "/>\n");
+	}
+
+	@Override
+	public void text(double x, double y, double w, double h, String str, String align, String valign,
+			boolean wrap, String format, String overflow, boolean clip, double rotation, String dir) {
+		if (str == null || str.isEmpty() || state.fontSize <= 0)
+			return;
+		if ("html".equals(format))
+			str = toPlainText(str);
+
+		double size = state.fontSize * state.scale;
+		double lineHeight = size * mxConstants.LINE_HEIGHT;
+		List<String> lines = wrap && w > 0 ? wrap(str, w * state.scale) : split(str);
+		double textHeight = size + (lines.size() - 1) * lineHeight;
+
+		x = tx(x);
+		y = ty(y);
+		double baseline = y + size - 1;
+		if (mxConstants.ALIGN_MIDDLE.equals(valign)) {
+			baseline -= textHeight / 2;
+		} else if (mxConstants.ALIGN_BOTTOM.equals(valign)) {
+			baseline -= textHeight + 1;
+		}
+		String anchor = "middle";
+		if (mxConstants.ALIGN_LEFT.equals(align)) {
+			anchor = "start";
+		} else if (mxConstants.ALIGN_RIGHT.equals(align)) {
+			anchor = "end";
+		}
+
+		StringBuilder element = new StringBuilder("<text text-anchor=\"" + anchor + "\" font-size=\"" + format(size)
+				+ "\" fill=\"" + escape(color(state.fontColor, "#000000")) + "\"");
+		if (state.fontFamily != null)
+			element.append(" font-family=\"" + escape(state.fontFamily) + "\"");
+		if ((state.fontStyle & mxConstants.FONT_BOLD) != 0)
+			element.append(" font-weight=\"bold\"");
+		if ((state.fontStyle & mxConstants.FONT_ITALIC) != 0)
+			element.append(" font-style=\"italic\"");
+		if ((state.fontStyle & mxConstants.FONT_UNDERLINE) != 0)
+			element.append(" text-decoration=\"underline\"");
+		if (state.alpha < 1)
+			element.append(" opacity=\"" + format(state.alpha) + "\"");
+		StringBuilder transform = new StringBuilder(state.transform);
+		if (rotation != 0)
+			transform.append("rotate(" + format(rotation) + "," + format(x) + "," + format(y) + ")");
+		if (transform.length() > 0)
+			element.append(" transform=\"" + transform + "\"");
+		element.append(">");
+		for (int i = 0; i < lines.size(); i++) {
+			element.append("<tspan x=\"" + format(x) + "\" y=\"" + format(baseline + i * lineHeight) + "\">"
+					+ escape(lines.get(i)) + "</tspan>");
+		}
+		write(element + "</text>\n");
+	}
+
+	@Override
+	public void begin() {
+		shape = null;
+		path = new StringBuilder();
+	}
+
+	@Override
+	public void moveTo(double x, double y) {
+		addOp("M", x, y);
+	}
+
+	@Override
+	public void lineTo(double x, double y) {
+		addOp("L", x, y);
+	}
+
+	@Override
+	public void quadTo(double x1, double y1, double x2, double y2) {
+		addOp("Q", x1, y1, x2, y2);
+	}
+
+	@Override
+	public void curveTo(double x1, double y1, double x2, double y2, double x3, double y3) {
+		addOp("C", x1, y1, x2, y2, x3, y3);
+	}
+
+	@Override
+	public void close() {
+		if (path != null)
+			path.append("Z");
+	}
+
+	@Override
+	public void stroke() {
+		paint(false, true);
+	}
+
+	@Override
+	public void fill() {
+		paint(true, false);
+	}
+
+	@Override
+	public void fillAndStroke() {
+		paint(true, true);
+	}
+
+	private void addOp(String op, double... points) {
+		if (path == null)
+			path = new StringBuilder();
+		path.append(op);
+		for (int i = 0; i < points.length; i += 2) {
+			if (i > 0)
+				path.append(' ');
+			path.append(format(tx(points[i]))).append(' ').append(format(ty(points[i + 1])));
+		}
+	}
+
+	/**
+	 * Writes the current shape or path with the fill and stroke, its shadow first.
+	 */
+	private void paint(boolean filled, boolean stroked) {
+		String element = shape;
+		if (element == null) {
+			if (path == null || path.length() == 0)
+				return;
+			element = "<path d=\"" + path + "\"";
+		}
+		String transform = state.transform.length() > 0 ? " transform=\"" + state.transform + "\"" : "";
+
+		if (state.shadow) {
+			String color = escape(color(state.shadowColor, "#808080"));
+			StringBuilder shadow = new StringBuilder(element);
+			shadow.append(filled ? " fill=\"" + color + "\"" : " fill=\"none\"");
+			if (stroked)
+				appendStroke(shadow, color);
+			shadow.append(" opacity=\"" + format(state.shadowAlpha * state.alpha) + "\"");
+			// offset on the page, so before the shape's own transform
+			shadow.append(" transform=\"translate(" + format(state.shadowDx * state.scale) + ","
+					+ format(state.shadowDy * state.scale) + ")" + state.transform + "\"");
+			write(shadow + "/>\n");
+		}
+
+		StringBuilder styled = new StringBuilder(element);
+		if (filled && state.gradient != null) {
+			styled.append(" fill=\"url(#" + state.gradient + ")\"");
+		} else if (filled && state.fillColor != null && !"none".equals(state.fillColor)) {
+			styled.append(" fill=\"" + escape(state.fillColor) + "\"");
+		} else {
+			styled.append(" fill=\"none\"");
+		}
+		if (filled && state.alpha * state.fillAlpha < 1)
+			styled.append(" fill-opacity=\"" + format(state.alpha * state.fillAlpha) + "\"");
+		if (stroked) {
+			appendStroke(styled, escape(color(state.strokeColor, "none")));
+			if (state.alpha * state.strokeAlpha < 1)
+				styled.append(" stroke-opacity=\"" + format(state.alpha * state.strokeAlpha) + "\"");
+		}
+		write(styled + transform + "/>\n");
+
+		shape = null;
+		path = null;
+	}
+
+	private void appendStroke(StringBuilder element, String color) {
+		element.append(" stroke=\"" + color + "\"");
+		double width = Math.max(0, state.strokeWidth);
+		if (width != 1)
+			element.append(" stroke-width=\"" + format(width) + "\"");
+		if (state.dashed && state.dashPattern != null) {
+			StringBuilder pattern = new StringBuilder();
+			for (String dash : state.dashPattern.trim().split("\\s+")) {
+				try {
+					double length = Double.parseDouble(dash) * (state.fixDash ? state.scale : Math.max(1, width));
+					if (pattern.length() > 0)
+						pattern.append(' ');
+					pattern.append(format(length));
+				} catch (NumberFormatException e) {
+					// skips what isn't a length
+				}
+			}
+			if (pattern.length() > 0)
+				element.append(" stroke-dasharray=\"" + pattern + "\"");
+		}
+		if (state.lineCap != null && !"flat".equals(state.lineCap)) {
+			element.append(" stroke-linecap=\"" + escape(state.lineCap) + "\"");
+		} else {
+			element.append(" stroke-linecap=\"butt\"");
+		}
+		if (state.lineJoin != null)
+			element.append(" stroke-linejoin=\"" + escape(state.lineJoin) + "\"");
+		if (state.miterLimit != 10)
+			element.append(" stroke-miterlimit=\"" + format(state.miterLimit) + "\"");
+	}
+
+	/**
+	 * Lines broken at newlines and, where they're wider than width, between words.
+	 */
+	private List<String> wrap(String str, double width) {
+		int style = Font.PLAIN;
+		if ((state.fontStyle & mxConstants.FONT_BOLD) != 0)
+			style |= Font.BOLD;
+		if ((state.fontStyle & mxConstants.FONT_ITALIC) != 0)
+			style |= Font.ITALIC;
+		Font font = new Font(state.fontFamily, style, 1).deriveFont((float) (state.fontSize * state.scale));
+
+		List<String> lines = new ArrayList<String>();
+		for (String paragraph : split(str)) {
+			StringBuilder line = new StringBuilder();
+			for (String word : paragraph.split(" ")) {
+				String candidate = line.length() > 0 ? line + " " + word : word;
+				if (line.length() > 0 && font.getStringBounds(candidate, FONT_RENDER_CONTEXT).getWidth() > width) {
+					lines.add(line.toString());
+					line = new StringBuilder(word);
+				} else {
+					line = new StringBuilder(candidate);
+				}
+			}
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	private static List<String> split(String str) {
+		List<String> lines = new ArrayList<String>();
+		for (String line : str.split("\n", -1)) {
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	/**
+	 * Line breaks of an HTML label as newlines, other tags dropped and the common
+	 * entities decoded.
+	 */
+	private static String toPlainText(String html) {
+		String text = html.replaceAll("(?i)<br\\s*/?>|</div>|</p>", "\n").replaceAll("<[^>]*>", "");
+		text = text.replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+				.replace("&#39;", "'").replace("&amp;", "&");
+		return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+	}
+
+	private double tx(double x) {
+		return (x + state.dx) * state.scale;
+	}
+
+	private double ty(double y) {
+		return (y + state.dy) * state.scale;
+	}
+
+	private static String color(String value, String fallback) {
+		return value != null ? value : fallback;
+	}
+
+	private static String format(double value) {
+		double rounded = Math.round(value * 100) / 100.0;
+		if (rounded == (long) rounded)
+			return Long.toString((long) rounded);
+		return Double.toString(rounded);
+	}
+
+	private static String escape(String value) {
+		StringBuilder escaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				escaped.append("&amp;");
+				break;
+			case '<':
+				escaped.append("&lt;");
+				break;
+			case '>':
+				escaped.append("&gt;");
+				break;
+			case '"':
+				escaped.append("&quot;");
+				break;
+			default:
+				// characters XML doesn't allow are dropped
+				if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r')
+					escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	private void write(String element) {
+		try {
+			out.write(element);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class State {
+		double scale = 1;
+		double dx;
+		double dy;
+		StringBuilder transform = new StringBuilder();
+		double alpha = 1;
+		double fillAlpha = 1;
+		double strokeAlpha = 1;
+		String fillColor;
+		String gradient;
+		String strokeColor;
+		double strokeWidth = 1;
+		boolean dashed;
+		boolean fixDash;
+		String dashPattern = "3 3";
+		String lineCap = "flat";
+		String lineJoin = "miter";
+		double miterLimit = 10;
+		String fontColor = "#000000";
+		double fontSize = mxConstants.DEFAULT_FONTSIZE;
+		String fontFamily = mxConstants.DEFAULT_FONTFAMILY;
+		int fontStyle;
+		boolean shadow;
+		String shadowColor = mxConstants.W3C_SHADOWCOLOR;
+		double shadowAlpha = 1;
+		double shadowDx = mxConstants.SHADOW_OFFSETX;
+		double shadowDy = mxConstants.SHADOW_OFFSETY;
+
+		State copy() {
+			State copy = new State();
+			copy.scale = scale;
+			copy.dx = dx;
+			copy.dy = dy;
+			copy.transform = new StringBuilder(transform);
+			copy.alpha = alpha;
+			copy.fillAlpha = fillAlpha;
+			copy.strokeAlpha = strokeAlpha;
+			copy.fillColor = fillColor;
+			copy.gradient = gradient;
+			copy.strokeColor = strokeColor;
+			copy.strokeWidth = strokeWidth;
+			copy.dashed = dashed;
+			copy.fixDash = fixDash;
+			copy.dashPattern = dashPattern;
+			copy.lineCap = lineCap;
+			copy.lineJoin = lineJoin;
+			copy.miterLimit = miterLimit;
+			copy.fontColor = fontColor;
+			copy.fontSize = fontSize;
+			copy.fontFamily = fontFamily;
+			copy.fontStyle = fontStyle;
+			copy.shadow = shadow;
+			copy.shadowColor = shadowColor;
+			copy.shadowAlpha = shadowAlpha;
+			copy.shadowDx = shadowDx;
+			copy.shadowDy = shadowDy;
+			return copy;
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package utils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.sbolstandard.core2.Component;
+import org.sbolstandard.core2.ComponentDefinition;
+
+/**
+ * A 128 bit hash that identifies an enumerated variant by what it was derived
+ * from and the definition each of its components uses. Two variants with the
+ * same fingerprint made the same choices, so checking the fingerprint is enough
+ * to skip a duplicate without comparing the whole definitions.
+ */
+public class VariantFingerprint {
+
+	private final long high;
+	private final long low;
+
+	private VariantFingerprint(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	public static VariantFingerprint of(ComponentDefinition variant) {
+		List<String> derivedFrom = new ArrayList<String>();
+		for (URI uri : variant.getWasDerivedFroms()) {
+			derivedFrom.add(uri.toString());
+		}
+		Collections.sort(derivedFrom);
+
+		// components of different variants have different identities, the display
+		// ids are what lines them up
+		List<String> choices = new ArrayList<String>();
+		for (Component component : variant.getComponents()) {
+			choices.add(component.getDisplayId() + "\t" + component.getDefinitionURI());
+		}
+		Collections.sort(choices);
+
+		MessageDigest digest = getDigest();
+		for (String uri : derivedFrom) {
+			update(digest, uri);
+		}
+		update(digest, "");
+		for (String choice : choices) {
+			update(digest, choice);
+		}
+		byte[] hash = digest.digest();
+		return new VariantFingerprint(toLong(hash, 0), toLong(hash, 8));
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '\n');
+	}
+
+	private static long toLong(byte[] bytes, int offset) {
+		long value = 0;
+		for (int i = offset; i < offset + 8; i++) {
+			value = (value << 8) | (bytes[i] & 0xff);
+		}
+		return value;
+	}
+
+	private static MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof VariantFingerprint))
+			return false;
+		VariantFingerprint other = (VariantFingerprint) obj;
+		return high == other.high && low == other.low;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (low ^ (low >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+
+}
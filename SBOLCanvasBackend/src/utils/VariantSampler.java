@@ -0,0 +1,216 @@
+package utils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Draws distinct variants from variant spaces at random without numbering the
+ * rest of the space, so it works for libraries far too large to enumerate. The
+ * same spaces, count and seed always draw the same variants.
+ *
+ * Uniform sampling gives every variant the same chance. Stratified sampling
+ * spreads the sample evenly over the choices of each variable, so a small
+ * sample still sees every part of a variable when it can.
+ */
+public class VariantSampler {
+
+	public enum Method {
+		UNIFORM, STRATIFIED
+	}
+
+	// stratified draws that collide are redrawn this many times before falling
+	// back to a uniform draw
+	private static final int REDRAWS = 16;
+
+	/**
+	 * Draws count distinct variants from the spaces taken together, or all of them
+	 * if there aren't that many. Returns the indices drawn from each space in
+	 * ascending order, one array per space.
+	 */
+	public static List<long[]> sample(List<VariantSpace> spaces, int count, long seed, Method method) {
+		if (count < 0)
+			throw new IllegalArgumentException("Can't draw " + count + " variants.");
+		SplittableRandom random = new SplittableRandom(seed);
+		if (method == Method.STRATIFIED) {
+			List<long[]> samples = new ArrayList<long[]>();
+			long[] counts = allocate(spaces, count);
+			for (int i = 0; i < spaces.size(); i++) {
+				samples.add(stratified(spaces.get(i), (int) counts[i], random.split()));
+			}
+			return samples;
+		}
+		return uniform(spaces, count, random);
+	}
+
+	/**
+	 * Floyd's algorithm over the spaces laid end to end, which only ever holds the
+	 * indices drawn.
+	 */
+	private static List<long[]> uniform(List<VariantSpace> spaces, int count, SplittableRandom random) {
+		long total = 0;
+		for (VariantSpace space : spaces) {
+			total = add(total, space.size());
+		}
+		long[] drawn;
+		if (count >= total) {
+			drawn = new long[(int) total];
+			for (int i = 0; i < drawn.length; i++) {
+				drawn[i] = i;
+			}
+		} else {
+			HashSet<Long> indices = new HashSet<Long>();
+			for (long j = total - count; j < total; j++) {
+				long index = random.nextLong(j + 1);
+				if (!indices.add(index))
+					indices.add(j);
+			}
+			drawn = toSortedArray(indices);
+		}
+
+		// split the drawn indices back up between the spaces
+		List<long[]> samples = new ArrayList<long[]>();
+		int from = 0;
+		long offset = 0;
+		for (VariantSpace space : spaces) {
+			int to = from;
+			while (to < drawn.length && drawn[to] - offset < space.size()) {
+				drawn[to] -= offset;
+				to++;
+			}
+			samples.add(Arrays.copyOfRange(drawn, from, to));
+			from = to;
+			offset += space.size();
+		}
+		return samples;
+	}
+
+	/**
+	 * Shares count out between the spaces in proportion to their sizes, largest
+	 * remainder first.
+	 */
+	private static long[] allocate(List<VariantSpace> spaces, int count) {
+		BigInteger total = BigInteger.ZERO;
+		for (VariantSpace space : spaces) {
+			total = total.add(BigInteger.valueOf(space.size()));
+		}
+		long[] counts = new long[spaces.size()];
+		if (total.signum() == 0)
+			return counts;
+		BigInteger[] remainders = new BigInteger[spaces.size()];
+		long left = total.compareTo(BigInteger.valueOf(count)) < 0 ? total.longValue() : count;
+		for (int i = 0; i < spaces.size(); i++) {
+			BigInteger[] share = BigInteger.valueOf(left).multiply(BigInteger.valueOf(spaces.get(i).size()))
+					.divideAndRemainder(total);
+			counts[i] = share[0].longValue();
+			remainders[i] = share[1];
+		}
+		for (long c : counts) {
+			left -= c;
+		}
+		while (left > 0) {
+			int best = -1;
+			for (int i = 0; i < spaces.size(); i++) {
+				if (counts[i] < spaces.get(i).size() && (best < 0 || remainders[i].compareTo(remainders[best]) > 0))
+					best = i;
+			}
+			counts[best]++;
+			remainders[best] = BigInteger.valueOf(-1);
+			left--;
+		}
+		return counts;
+	}
+
+	/**
+	 * Builds count rows of choices where every variable's column is spread evenly
+	 * over its choices, then shuffles each column on its own. With more choices
+	 * than rows, each row gets a choice from its own stretch of the choices.
+	 */
+	private static long[] stratified(VariantSpace space, int count, SplittableRandom random) {
+		if (count >= space.size())
+			return uniform(Arrays.asList(space), count, random).get(0);
+		long[] radices = space.getRadices();
+		long[][] columns = new long[radices.length][];
+		for (int i = 0; i < radices.length; i++) {
+			columns[i] = stratify(radices[i], count, random);
+		}
+
+		HashSet<Long> indices = new HashSet<Long>();
+		long[] digits = new long[radices.length];
+		for (int row = 0; row < count; row++) {
+			for (int i = 0; i < radices.length; i++) {
+				digits[i] = columns[i][row];
+			}
+			long index = space.encode(digits);
+			// a collision keeps the choices of all but one variable
+			for (int redraw = 0; redraw < REDRAWS && indices.contains(index); redraw++) {
+				int i = random.nextInt(radices.length);
+				digits[i] = random.nextLong(radices[i]);
+				index = space.encode(digits);
+			}
+			while (indices.contains(index)) {
+				index = random.nextLong(space.size());
+			}
+			indices.add(index);
+		}
+		return toSortedArray(indices);
+	}
+
+	private static long[] stratify(long radix, int count, SplittableRandom random) {
+		long[] column = new long[count];
+		if (radix <= count) {
+			// every choice the same number of times, give or take one, with the
+			// extra ones going to randomly picked choices
+			long[] choices = new long[(int) radix];
+			for (int i = 0; i < choices.length; i++) {
+				choices[i] = i;
+			}
+			shuffle(choices, random);
+			for (int row = 0; row < count; row++) {
+				column[row] = choices[(int) (row % radix)];
+			}
+		} else {
+			BigInteger bigRadix = BigInteger.valueOf(radix);
+			BigInteger bigCount = BigInteger.valueOf(count);
+			long start = 0;
+			for (int row = 0; row < count; row++) {
+				long end = BigInteger.valueOf(row + 1).multiply(bigRadix).divide(bigCount).longValue();
+				column[row] = start + random.nextLong(end - start);
+				start = end;
+			}
+		}
+		shuffle(column, random);
+		return column;
+	}
+
+	private static void shuffle(long[] values, SplittableRandom random) {
+		for (int i = values.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+
+	private static long[] toSortedArray(HashSet<Long> indices) {
+		long[] sorted = new long[indices.size()];
+		int i = 0;
+		for (Long index : indices) {
+			sorted[i++] = index;
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private static long add(long a, long b) {
+		try {
+			return Math.addExact(a, b);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Too many variants to number.");
+		}
+	}
+
+}
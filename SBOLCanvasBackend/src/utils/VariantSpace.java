@@ -0,0 +1,419 @@
+package utils;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.sbolstandard.core2.Collection;
+import org.sbolstandard.core2.CombinatorialDerivation;
+import org.sbolstandard.core2.Component;
+import org.sbolstandard.core2.ComponentDefinition;
+import org.sbolstandard.core2.OperatorType;
+import org.sbolstandard.core2.SBOLDocument;
+import org.sbolstandard.core2.SBOLValidationException;
+import org.sbolstandard.core2.SequenceConstraint;
+import org.sbolstandard.core2.TopLevel;
+import org.sbolstandard.core2.VariableComponent;
+
+/**
+ * The variants of a combinatorial derivation, numbered from 0 to size() - 1 so
+ * they can be generated one at a time instead of all at once like
+ * CombinatorialDerivation.enumerate does.
+ *
+ * Each variable component is a digit of a mixed radix number. The digit picks
+ * one variant for ONE, nothing or one variant for ZEROORONE, and a subset of
+ * the variants for ZEROORMORE and ONEORMORE, the same choices enumerate makes.
+ * Variants come from the variant definitions, the definitions in the variant
+ * collections and, recursively, the variants of the variant derivations. They
+ * are ordered by identity so an index always means the same variant.
+ */
+public class VariantSpace {
+
+	private static final Comparator<TopLevel> BY_IDENTITY = new Comparator<TopLevel>() {
+		@Override
+		public int compare(TopLevel a, TopLevel b) {
+			return a.getIdentity().toString().compareTo(b.getIdentity().toString());
+		}
+	};
+
+	private final CombinatorialDerivation derivation;
+	private final ComponentDefinition template;
+	private final String uriPrefix;
+	private final List<Slot> slots;
+	private final HashMap<URI, Slot> slotsByVariable;
+	private final long size;
+
+	public VariantSpace(CombinatorialDerivation derivation) {
+		this(derivation, new HashSet<URI>());
+	}
+
+	private VariantSpace(CombinatorialDerivation derivation, Set<URI> enclosing) {
+		if (!enclosing.add(derivation.getIdentity()))
+			throw new IllegalArgumentException(derivation.getIdentity() + " is its own variant.");
+		this.derivation = derivation;
+		this.template = derivation.getTemplate();
+		this.uriPrefix = getURIPrefix(template);
+
+		List<VariableComponent> variableComponents = new ArrayList<VariableComponent>(
+				derivation.getVariableComponents());
+		Collections.sort(variableComponents, new Comparator<VariableComponent>() {
+			@Override
+			public int compare(VariableComponent a, VariableComponent b) {
+				return a.getVariableURI().toString().compareTo(b.getVariableURI().toString());
+			}
+		});
+		slots = new ArrayList<Slot>();
+		slotsByVariable = new HashMap<URI, Slot>();
+		long size = 1;
+		for (VariableComponent variableComponent : variableComponents) {
+			Slot slot = new Slot(variableComponent, enclosing);
+			slots.add(slot);
+			slotsByVariable.put(variableComponent.getVariableURI(), slot);
+			size = multiply(size, slot.size);
+		}
+		this.size = size;
+		enclosing.remove(derivation.getIdentity());
+	}
+
+	public CombinatorialDerivation getDerivation() {
+		return derivation;
+	}
+
+	/**
+	 * Number of variants.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * The template components that vary, in digit order.
+	 */
+	public List<Component> getVariables() {
+		List<Component> variables = new ArrayList<Component>();
+		for (Slot slot : slots) {
+			variables.add(slot.variable);
+		}
+		return variables;
+	}
+
+	/**
+	 * The parts chosen for each variable of the variant at index, in the order of
+	 * getVariables(). A variable that is left out has no parts.
+	 */
+	public List<List<Part>> decode(long index) {
+		checkIndex(index);
+		Part[][] choices = new Part[slots.size()][];
+		// the last variable changes fastest
+		for (int i = slots.size() - 1; i >= 0; i--) {
+			Slot slot = slots.get(i);
+			choices[i] = slot.choose(index % slot.size);
+			index = index / slot.size;
+		}
+		List<List<Part>> parts = new ArrayList<List<Part>>();
+		for (Part[] choice : choices) {
+			parts.add(Arrays.asList(choice));
+		}
+		return parts;
+	}
+
+	/**
+	 * Number of choices for each variable, in the order of getVariables().
+	 */
+	public long[] getRadices() {
+		long[] radices = new long[slots.size()];
+		for (int i = 0; i < slots.size(); i++) {
+			radices[i] = slots.get(i).size;
+		}
+		return radices;
+	}
+
+	/**
+	 * Index of the variant that makes the given choice for each variable, the
+	 * inverse of decode.
+	 */
+	public long encode(long[] digits) {
+		if (digits.length != slots.size())
+			throw new IllegalArgumentException("Expected " + slots.size() + " choices, got " + digits.length + ".");
+		long index = 0;
+		for (int i = 0; i < slots.size(); i++) {
+			long radix = slots.get(i).size;
+			if (digits[i] < 0 || digits[i] >= radix)
+				throw new IndexOutOfBoundsException("Choice " + digits[i] + " of " + radix + ".");
+			index = index * radix + digits[i];
+		}
+		return index;
+	}
+
+	/**
+	 * Identity the variant at index gets when it's created.
+	 */
+	public URI getIdentity(long index) {
+		String version = template.getVersion();
+		return URI.create(uriPrefix + getDisplayId(index)
+				+ (version != null && !version.isEmpty() ? "/" + version : ""));
+	}
+
+	public String getDisplayId(long index) {
+		return template.getDisplayId() + "_" + index;
+	}
+
+	/**
+	 * Creates the variant at index in target, along with everything it refers to
+	 * from source. The template is copied with each variable component replaced by
+	 * one component per chosen part. Sequence constraints between components that
+	 * are kept are carried over, sequence annotations aren't since the positions
+	 * no longer hold. A variant already in target is returned as is.
+	 */
+	public ComponentDefinition create(SBOLDocument source, SBOLDocument target, long index)
+			throws SBOLValidationException {
+		ComponentDefinition existing = target.getComponentDefinition(getIdentity(index));
+		if (existing != null)
+			return existing;
+
+		List<List<Part>> choices = decode(index);
+		ComponentDefinition variant = target.createComponentDefinition(uriPrefix, getDisplayId(index),
+				template.getVersion(), template.getTypes());
+		variant.setRoles(template.getRoles());
+		variant.setName(template.getName());
+		variant.setDescription(template.getDescription());
+		variant.addWasDerivedFrom(derivation.getIdentity());
+
+		HashMap<URI, List<URI>> replacements = new HashMap<URI, List<URI>>();
+		for (Component component : template.getSortedComponents()) {
+			List<URI> replacement = new ArrayList<URI>();
+			Slot slot = slotsByVariable.get(component.getIdentity());
+			if (slot == null) {
+				copyDefinition(source, target, component.getDefinition());
+				replacement.add(variant.createComponent(component.getDisplayId(), component.getAccess(),
+						component.getDefinitionURI()).getIdentity());
+			} else {
+				List<Part> parts = choices.get(slots.indexOf(slot));
+				for (int i = 0; i < parts.size(); i++) {
+					ComponentDefinition definition = parts.get(i).create(source, target);
+					String displayId = component.getDisplayId() + (i > 0 ? "_" + i : "");
+					replacement.add(variant.createComponent(displayId, component.getAccess(), definition.getIdentity())
+							.getIdentity());
+				}
+			}
+			replacements.put(component.getIdentity(), replacement);
+		}
+
+		for (SequenceConstraint constraint : template.getSequenceConstraints()) {
+			List<URI> subjects = replacements.get(constraint.getSubjectURI());
+			List<URI> objects = replacements.get(constraint.getObjectURI());
+			if (subjects == null || objects == null || subjects.isEmpty() || objects.isEmpty())
+				continue;
+			variant.createSequenceConstraint(constraint.getDisplayId(), constraint.getRestriction(),
+					subjects.get(subjects.size() - 1), objects.get(0));
+		}
+		return variant;
+	}
+
+	/**
+	 * Counts the variants of derivation exactly, without numbering them. Works for
+	 * spaces too large for size(), up to 2^65536 choices per variable.
+	 */
+	public static BigInteger count(CombinatorialDerivation derivation) {
+		return count(derivation, new HashSet<URI>());
+	}
+
+	private static BigInteger count(CombinatorialDerivation derivation, Set<URI> enclosing) {
+		if (!enclosing.add(derivation.getIdentity()))
+			throw new IllegalArgumentException(derivation.getIdentity() + " is its own variant.");
+		BigInteger count = BigInteger.ONE;
+		for (VariableComponent variableComponent : derivation.getVariableComponents()) {
+			BigInteger options = BigInteger.valueOf(getDefinitions(variableComponent).size());
+			for (CombinatorialDerivation nested : getDerivations(variableComponent)) {
+				options = options.add(count(nested, enclosing));
+			}
+			OperatorType operator = variableComponent.getOperator();
+			if (operator == OperatorType.ZEROORONE) {
+				count = count.multiply(options.add(BigInteger.ONE));
+			} else if (operator == OperatorType.ZEROORMORE || operator == OperatorType.ONEORMORE) {
+				if (options.bitLength() > 16)
+					throw new IllegalArgumentException("Too many variants to count.");
+				BigInteger subsets = BigInteger.ONE.shiftLeft(options.intValue());
+				if (operator == OperatorType.ONEORMORE)
+					subsets = subsets.subtract(BigInteger.ONE);
+				count = count.multiply(subsets);
+			} else {
+				count = count.multiply(options);
+			}
+		}
+		enclosing.remove(derivation.getIdentity());
+		return count;
+	}
+
+	/**
+	 * The variant definitions and definitions in the variant collections, by
+	 * identity.
+	 */
+	private static List<ComponentDefinition> getDefinitions(VariableComponent variableComponent) {
+		HashSet<ComponentDefinition> variants = new HashSet<ComponentDefinition>(variableComponent.getVariants());
+		for (Collection collection : variableComponent.getVariantCollections()) {
+			for (TopLevel member : collection.getMembers()) {
+				if (member instanceof ComponentDefinition)
+					variants.add((ComponentDefinition) member);
+			}
+		}
+		List<ComponentDefinition> definitions = new ArrayList<ComponentDefinition>(variants);
+		Collections.sort(definitions, BY_IDENTITY);
+		return definitions;
+	}
+
+	private static List<CombinatorialDerivation> getDerivations(VariableComponent variableComponent) {
+		List<CombinatorialDerivation> derivations = new ArrayList<CombinatorialDerivation>(
+				variableComponent.getVariantDerivations());
+		Collections.sort(derivations, BY_IDENTITY);
+		return derivations;
+	}
+
+	private static void copyDefinition(SBOLDocument source, SBOLDocument target, ComponentDefinition definition)
+			throws SBOLValidationException {
+		if (definition != null && target.getComponentDefinition(definition.getIdentity()) == null)
+			source.createRecursiveCopy(target, definition);
+	}
+
+	private void checkIndex(long index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Variant " + index + " of " + size + ".");
+	}
+
+	private static long multiply(long a, long b) {
+		try {
+			return Math.multiplyExact(a, b);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Too many variants to number.");
+		}
+	}
+
+	/**
+	 * Prefix of a compliant identity, eg. https://sbolcanvas.org/ for
+	 * https://sbolcanvas.org/template/1.
+	 */
+	private static String getURIPrefix(ComponentDefinition template) {
+		String persistentIdentity = template.getPersistentIdentity().toString();
+		String suffix = "/" + template.getDisplayId();
+		if (persistentIdentity.endsWith(suffix))
+			return persistentIdentity.substring(0, persistentIdentity.length() - suffix.length() + 1);
+		return Converter.URI_PREFIX;
+	}
+
+	/**
+	 * A part chosen for a variable, either a definition or a variant of a nested
+	 * derivation.
+	 */
+	public static class Part {
+		private final ComponentDefinition definition;
+		private final VariantSpace space;
+		private final long index;
+
+		Part(ComponentDefinition definition) {
+			this.definition = definition;
+			this.space = null;
+			this.index = 0;
+		}
+
+		Part(VariantSpace space, long index) {
+			this.definition = null;
+			this.space = space;
+			this.index = index;
+		}
+
+		public URI getIdentity() {
+			return definition != null ? definition.getIdentity() : space.getIdentity(index);
+		}
+
+		public String getDisplayId() {
+			return definition != null ? definition.getDisplayId() : space.getDisplayId(index);
+		}
+
+		ComponentDefinition create(SBOLDocument source, SBOLDocument target) throws SBOLValidationException {
+			if (definition != null) {
+				copyDefinition(source, target, definition);
+				return definition;
+			}
+			return space.create(source, target, index);
+		}
+	}
+
+	/**
+	 * One variable component. Its options are numbered by laying the variant
+	 * definitions and then each nested derivation's variants end to end.
+	 */
+	private static class Slot {
+		final Component variable;
+		final OperatorType operator;
+		final List<ComponentDefinition> definitions;
+		final List<VariantSpace> derivations;
+		final long options;
+		final long size;
+
+		Slot(VariableComponent variableComponent, Set<URI> enclosing) {
+			variable = variableComponent.getVariable();
+			operator = variableComponent.getOperator();
+
+			definitions = getDefinitions(variableComponent);
+			derivations = new ArrayList<VariantSpace>();
+			long options = definitions.size();
+			for (CombinatorialDerivation derivation : getDerivations(variableComponent)) {
+				VariantSpace space = new VariantSpace(derivation, enclosing);
+				derivations.add(space);
+				try {
+					options = Math.addExact(options, space.size());
+				} catch (ArithmeticException e) {
+					throw new IllegalArgumentException("Too many variants to number.");
+				}
+			}
+			this.options = options;
+
+			if (operator == OperatorType.ZEROORONE) {
+				size = options + 1;
+			} else if (operator == OperatorType.ZEROORMORE || operator == OperatorType.ONEORMORE) {
+				if (options >= Long.SIZE - 1)
+					throw new IllegalArgumentException("Too many variants to number.");
+				size = (1L << options) - (operator == OperatorType.ONEORMORE ? 1 : 0);
+			} else {
+				size = options;
+			}
+		}
+
+		Part[] choose(long digit) {
+			if (operator == OperatorType.ZEROORONE) {
+				return digit == 0 ? new Part[0] : new Part[] { option(digit - 1) };
+			} else if (operator == OperatorType.ZEROORMORE || operator == OperatorType.ONEORMORE) {
+				// the digit is a bit set of options, ONEORMORE skips the empty set
+				long bits = operator == OperatorType.ONEORMORE ? digit + 1 : digit;
+				Part[] parts = new Part[Long.bitCount(bits)];
+				int i = 0;
+				for (long option = 0; option < options; option++) {
+					if ((bits & (1L << option)) != 0)
+						parts[i++] = option(option);
+				}
+				return parts;
+			}
+			return new Part[] { option(digit) };
+		}
+
+		Part option(long option) {
+			if (option < definitions.size())
+				return new Part(definitions.get((int) option));
+			option -= definitions.size();
+			for (VariantSpace space : derivations) {
+				if (option < space.size())
+					return new Part(space, option);
+				option -= space.size();
+			}
+			throw new IndexOutOfBoundsException("Option " + option + " of " + options + ".");
+		}
+	}
+
+}